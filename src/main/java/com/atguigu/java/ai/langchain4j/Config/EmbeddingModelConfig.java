@@ -0,0 +1,146 @@
+package com.atguigu.java.ai.langchain4j.Config;
+
+import com.atguigu.java.ai.langchain4j.rag.BatchingEmbeddingModel;
+import com.atguigu.java.ai.langchain4j.rag.CachingEmbeddingModel;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.bgesmallzhv15q.BgeSmallZhV15QuantizedEmbeddingModel;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 向量模型配置类
+ * 在通义千问向量模型外依次包装请求合并与向量缓存，应用内注入的 EmbeddingModel 均为带缓存的版本；
+ * 本地知识库另外使用 localEmbeddingModel，可选为进程内运行的 bge-small-zh 量化模型，不依赖外部服务
+ */
+@Configuration
+public class EmbeddingModelConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingModelConfig.class);
+
+    // 单次调用的最大条数（text-embedding-v3 每次最多 10 条）
+    @Value("${rag.embedding.batch.max-size:10}")
+    private int maxBatchSize;
+
+    // 攒批的最长等待时间
+    @Value("${rag.embedding.batch.max-wait-ms:5}")
+    private long maxWaitMillis;
+
+    // 同时进行的批量调用数
+    @Value("${rag.embedding.batch.concurrency:4}")
+    private int concurrency;
+
+    // 内存中缓存的向量数
+    @Value("${rag.embedding.cache.max-entries:20000}")
+    private int cacheMaxEntries;
+
+    // 向量磁盘缓存目录，留空表示不启用
+    @Value("${rag.embedding.cache.disk-dir:}")
+    private String cacheDiskDir;
+
+    // 缓存命名空间，更换向量模型时需随之修改
+    @Value("${rag.embedding.cache.namespace:${langchain4j.community.dashscope.embedding-model.model-name:default}}")
+    private String cacheNamespace;
+
+    // 本地知识库与回答缓存使用的向量模型：dashscope 与 Pinecone 共用通义千问向量模型，onnx 为进程内的 bge-small-zh-v1.5 量化模型
+    @Value("${rag.embedding.local.provider:dashscope}")
+    private String localProvider;
+
+    // onnx 模型推理线程数、单次推理的最大条数与攒批等待时间
+    @Value("${rag.embedding.local.threads:2}")
+    private int localThreads;
+
+    @Value("${rag.embedding.local.batch-size:32}")
+    private int localBatchSize;
+
+    @Value("${rag.embedding.local.max-wait-ms:2}")
+    private long localMaxWaitMillis;
+
+    private ExecutorService onnxExecutor;
+    private BatchingEmbeddingModel onnxBatchingModel;
+
+    /**
+     * 合并并发的单条向量化请求
+     *
+     * @param qwenEmbeddingModel 通义千问向量模型
+     * @return 合并请求的向量模型
+     */
+    @Bean(destroyMethod = "close")
+    BatchingEmbeddingModel batchingEmbeddingModel(@Qualifier("qwenEmbeddingModel") EmbeddingModel qwenEmbeddingModel) {
+        return new BatchingEmbeddingModel(qwenEmbeddingModel, maxBatchSize, maxWaitMillis, concurrency);
+    }
+
+    /**
+     * 带缓存的向量模型，作为默认注入的 EmbeddingModel
+     *
+     * @param batchingEmbeddingModel 合并请求的向量模型
+     * @return 带缓存的向量模型
+     */
+    @Bean
+    @Primary
+    CachingEmbeddingModel embeddingModel(BatchingEmbeddingModel batchingEmbeddingModel) {
+        return new CachingEmbeddingModel(batchingEmbeddingModel, cacheNamespace, cacheMaxEntries, diskPath());
+    }
+
+    /**
+     * 本地知识库与回答缓存使用的向量模型
+     * 选择 onnx 时模型在本进程内以固定数量的线程推理，并发的单条请求合并为一批，结果同样带缓存（命名空间与远程模型区分）；
+     * 该模型的向量维度与通义千问不同，不能用于 Pinecone 中已有的数据
+     *
+     * @param embeddingModel 默认的带缓存向量模型
+     * @return 本地使用的向量模型
+     */
+    @Bean
+    EmbeddingModel localEmbeddingModel(CachingEmbeddingModel embeddingModel) {
+        if (!"onnx".equalsIgnoreCase(localProvider)) {
+            return embeddingModel;
+        }
+        AtomicInteger index = new AtomicInteger();
+        onnxExecutor = Executors.newFixedThreadPool(localThreads, r -> {
+            Thread thread = new Thread(r, "onnx-embedding-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        EmbeddingModel onnxModel = new BgeSmallZhV15QuantizedEmbeddingModel(onnxExecutor);
+        onnxBatchingModel = new BatchingEmbeddingModel(onnxModel, localBatchSize, localMaxWaitMillis, localThreads);
+        logger.info("本地知识库使用进程内向量模型 bge-small-zh-v1.5-q，推理线程数 {}", localThreads);
+        return new CachingEmbeddingModel(onnxBatchingModel, "bge-small-zh-v15-q", cacheMaxEntries, diskPath());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (onnxBatchingModel != null) {
+            onnxBatchingModel.close();
+        }
+        if (onnxExecutor != null) {
+            onnxExecutor.shutdownNow();
+        }
+    }
+
+    private Path diskPath() {
+        if (cacheDiskDir == null || cacheDiskDir.isBlank()) {
+            return null;
+        }
+        try {
+            Path path = Files.createDirectories(Paths.get(cacheDiskDir));
+            logger.info("向量磁盘缓存已启用: {}", path);
+            return path;
+        } catch (IOException e) {
+            logger.error("创建向量磁盘缓存目录失败，仅使用内存缓存: {}", cacheDiskDir, e);
+            return null;
+        }
+    }
+}
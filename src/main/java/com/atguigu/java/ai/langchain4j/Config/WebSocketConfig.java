@@ -3,8 +3,10 @@ package com.atguigu.java.ai.langchain4j.Config;
 import com.atguigu.java.ai.langchain4j.assistant.XiaozhiAgent;
 import com.atguigu.java.ai.langchain4j.handler.CallHandler;
 import com.atguigu.java.ai.langchain4j.handler.VoiceHandler;
+import com.atguigu.java.ai.langchain4j.handler.VoiceSessionRegistry;
 import com.atguigu.java.ai.langchain4j.service.VoiceService;
-import com.atguigu.java.ai.langchain4j.utils.AliyunTokenUtil;
+import com.atguigu.java.ai.langchain4j.voice.NlsClientRegistry;
+import com.atguigu.java.ai.langchain4j.voice.VoiceTurnExecutor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
@@ -20,7 +22,13 @@ public class WebSocketConfig implements WebSocketConfigurer {
     private VoiceService voiceService;
 
     @Autowired
-    private AliyunTokenUtil aliyunTokenUtil;
+    private NlsClientRegistry nlsClientRegistry;
+
+    @Autowired
+    private VoiceSessionRegistry voiceSessionRegistry;
+
+    @Autowired
+    private VoiceTurnExecutor voiceTurnExecutor;
 
     @Autowired
     private XiaozhiAgent xiaozhiAgent;
@@ -28,14 +36,21 @@ public class WebSocketConfig implements WebSocketConfigurer {
     @Value("${aliyun.tts.appKey}")
     private String appKey;
 
+    // 通话回复模式：pipelined（逐句流水线）或 buffered（整段合成）
+    @Value("${voice.call.reply-mode:pipelined}")
+    private String replyMode;
+
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         // 2. 注册普通语音识别
-        registry.addHandler(new VoiceHandler(aliyunTokenUtil, appKey), "/voice-asr")
+        registry.addHandler(new VoiceHandler(nlsClientRegistry, voiceSessionRegistry, appKey), "/voice-asr")
                 .setAllowedOrigins("*");
 
         // 3. 【核心修复】在构造函数中补全 xiaozhiAgent 参数
-        registry.addHandler(new CallHandler(voiceService, xiaozhiAgent, aliyunTokenUtil, appKey), "/voice-call")
+        CallHandler callHandler = new CallHandler(voiceService, xiaozhiAgent, nlsClientRegistry,
+                voiceSessionRegistry, voiceTurnExecutor, appKey,
+                CallHandler.ReplyMode.valueOf(replyMode.trim().toUpperCase()));
+        registry.addHandler(callHandler, "/voice-call")
                 .setAllowedOrigins("*");
     }
 }
\ No newline at end of file
@@ -4,22 +4,31 @@
  */
 package com.atguigu.java.ai.langchain4j.Config;
 
+import com.atguigu.java.ai.langchain4j.memory.ConversationSummarizer;
+import com.atguigu.java.ai.langchain4j.memory.TokenBudgetChatMemory;
+import com.atguigu.java.ai.langchain4j.memory.TurnCompactor;
+import com.atguigu.java.ai.langchain4j.rag.CompositeContentRetriever;
+import com.atguigu.java.ai.langchain4j.rag.HybridContentRetriever;
+import com.atguigu.java.ai.langchain4j.rag.KnowledgeBase;
+import com.atguigu.java.ai.langchain4j.rag.RuleBasedQueryRouter;
 import com.atguigu.java.ai.langchain4j.store.MongoChatMemoryStore;
-import dev.langchain4j.data.document.Document;
-import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import com.atguigu.java.ai.langchain4j.store.RedisChatMemoryStore;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.chat.ChatMemoryProvider;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.input.PromptTemplate;
+import dev.langchain4j.rag.DefaultRetrievalAugmentor;
+import dev.langchain4j.rag.RetrievalAugmentor;
+import dev.langchain4j.rag.content.injector.DefaultContentInjector;
 import dev.langchain4j.rag.content.retriever.ContentRetriever;
 import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import dev.langchain4j.store.embedding.EmbeddingStoreIngestor;
-import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import java.util.Arrays;
+
 import java.util.List;
 
 /**
@@ -32,58 +41,170 @@ public class XiaozhiAgentConfig {
     private MongoChatMemoryStore mongoChatMemoryStore;
 
     @Autowired
-    private EmbeddingStore embeddingStore;
+    private RedisChatMemoryStore redisChatMemoryStore;
+
+    // 多节点部署时开启，活跃会话通过Redis共享
+    @Value("${chat.memory.redis.enabled:false}")
+    private boolean redisEnabled;
+
+    @Autowired
+    private ConversationSummarizer conversationSummarizer;
+
+    // 每次对话发送给大模型的记忆token预算（本地估算值）
+    @Value("${chat.memory.max-tokens:3000}")
+    private int maxTokens;
+
+    // 超出预算的早期对话是否合并为摘要，关闭时直接丢弃
+    @Value("${chat.memory.summary.enabled:true}")
+    private boolean summaryEnabled;
+
+    // 每轮结束后是否只保存用户原文并把工具调用过程压缩为一行结果
+    @Value("${chat.memory.compact-turns:true}")
+    private boolean compactTurns;
+
+    // Pinecone向量库
+    @Autowired
+    private EmbeddingStore<TextSegment> embeddingStore;
 
     @Autowired
     private EmbeddingModel embeddingModel;
 
+    @Autowired
+    private KnowledgeBase knowledgeBase;
+
+    // 混合检索：向量检索的候选数与最小相似度（比单独使用时放宽，由融合排序筛选）
+    @Value("${rag.hybrid.vector-candidates:5}")
+    private int hybridVectorCandidates;
+
+    @Value("${rag.hybrid.vector-min-score:0.6}")
+    private double hybridVectorMinScore;
+
+    // 混合检索：倒排索引候选数、融合后注入提示词的条数、RRF平滑常数
+    @Value("${rag.hybrid.lexical-candidates:5}")
+    private int hybridLexicalCandidates;
+
+    @Value("${rag.hybrid.max-results:2}")
+    private int hybridMaxResults;
+
+    @Value("${rag.hybrid.rrf-k:60}")
+    private int hybridRrfK;
+
+    // 不超过该长度的查询在倒排索引中完整命中时直接返回，不等待向量检索
+    @Value("${rag.hybrid.exact-max-chars:12}")
+    private int hybridExactMaxChars;
+
+    // 问候、确认、预约字段值等消息是否跳过检索
+    @Value("${rag.router.enabled:true}")
+    private boolean routerEnabled;
+
+    // 组合检索：Pinecone与本地知识库各自的截止时间（从请求开始计算）
+    @Value("${rag.composite.remote-deadline-ms:800}")
+    private long remoteDeadlineMs;
+
+    @Value("${rag.composite.local-deadline-ms:300}")
+    private long localDeadlineMs;
+
+    // 组合检索：每个来源独立的线程数与排队上限，超出时拒绝该来源的检索
+    @Value("${rag.composite.remote-threads:8}")
+    private int remoteThreads;
+
+    @Value("${rag.composite.local-threads:4}")
+    private int localThreads;
+
+    @Value("${rag.composite.queue-capacity:16}")
+    private int queueCapacity;
+
     /**
      * 创建聊天记忆提供者
-     * 为小智AI助手提供基于MongoDB的聊天记忆功能，支持最多保存20条消息
+     * 为小智AI助手提供基于MongoDB的聊天记忆功能（可选Redis共享缓存），
+     * 按token预算保留最近的对话，更早的对话异步合并为摘要
      *
      * @return 返回聊天记忆提供者实例
      */
     @Bean
     ChatMemoryProvider chatMemoryProviderXiaozhi() {
-        return memoryId -> MessageWindowChatMemory.builder()
-                .id(memoryId)
-                .maxMessages(20)
-                .chatMemoryStore(mongoChatMemoryStore)
-                .build();
+        ChatMemoryStore chatMemoryStore = redisEnabled ? redisChatMemoryStore : mongoChatMemoryStore;
+        ConversationSummarizer summarizer = summaryEnabled ? conversationSummarizer : null;
+        return memoryId -> new TokenBudgetChatMemory(memoryId, chatMemoryStore, maxTokens, summarizer, compactTurns);
     }
 
     /**
      * 创建内容检索器，基于本地知识库
-     * 从本地文件系统加载知识库文档并创建内容检索器（使用内存向量存储）
-     * 注：在生产环境中使用contentRetrieverXiaozhiPincone
+     * 知识库目录在启动后由 KnowledgeBase 在后台加载（优先读取向量快照），加载完成前检索返回空结果；
+     * 与Pinecone一起作为组合检索的来源
      *
      * @return 返回内容检索器实例
      */
     @Bean
     ContentRetriever contentRetrieverXiaozhi() {
-        Document document1 = FileSystemDocumentLoader.loadDocument("D:/knowledge/医院信息.md");
-        Document document2 = FileSystemDocumentLoader.loadDocument("D:/knowledge/科室信息.md");
-        Document document3 = FileSystemDocumentLoader.loadDocument("D:/knowledge/神经内科.md");
-        List<Document> documents = Arrays.asList(document1, document2, document3);
-        InMemoryEmbeddingStore<TextSegment> embeddingStore = new InMemoryEmbeddingStore<>();
-        EmbeddingStoreIngestor.ingest(documents, embeddingStore);
-        return EmbeddingStoreContentRetriever.from(embeddingStore);
+        return knowledgeBase.retriever();
     }
 
     /**
-     * 创建内容检索器，基于Pinecone向量数据库
-     * 使用Pinecone向量数据库创建内容检索器，支持精确匹配和相似度检索
+     * 创建组合向量检索器
+     * Pinecone与本地知识库并行检索，Pinecone在截止时间内有结果即返回；
+     * Pinecone变慢或不可用时降级为本地知识库的结果，检索耗时不超过配置的截止时间；
+     * 两个来源各用独立的线程池，Pinecone超时的请求不会占用本地检索的线程
      *
-     * @return 返回基于Pinecone的内容检索器实例
+     * @return 返回组合检索器实例
      */
-    @Bean
-    ContentRetriever contentRetrieverXiaozhiPincone() {
-        return EmbeddingStoreContentRetriever
+    @Bean(destroyMethod = "close")
+    CompositeContentRetriever compositeContentRetrieverXiaozhi() {
+        ContentRetriever remoteRetriever = EmbeddingStoreContentRetriever
                 .builder()
                 .embeddingModel(embeddingModel)
                 .embeddingStore(embeddingStore)
-                .maxResults(1)  // 最大返回结果数
-                .minScore(0.8)  // 最小相似度分数
+                .maxResults(hybridVectorCandidates)
+                .minScore(hybridVectorMinScore)
+                .build();
+        return new CompositeContentRetriever(List.of(
+                new CompositeContentRetriever.Source("pinecone", remoteRetriever, remoteDeadlineMs,
+                        remoteThreads, queueCapacity),
+                new CompositeContentRetriever.Source("local", contentRetrieverXiaozhi(), localDeadlineMs,
+                        localThreads, queueCapacity)),
+                hybridVectorCandidates);
+    }
+
+    /**
+     * 创建混合检索器
+     * 本地知识库的倒排索引与组合向量检索的结果按倒数排名融合，
+     * 医生姓名、科室名、药品名等精确词也能命中
+     *
+     * @return 返回混合检索器实例
+     */
+    @Bean
+    HybridContentRetriever hybridContentRetrieverXiaozhi() {
+        return new HybridContentRetriever(knowledgeBase::lexicalIndex, compositeContentRetrieverXiaozhi(),
+                hybridLexicalCandidates, hybridMaxResults, hybridRrfK, hybridExactMaxChars);
+    }
+
+    /**
+     * 创建查询路由
+     * 按规则判断消息是否需要检索，需要时交给混合检索器
+     *
+     * @return 返回查询路由实例
+     */
+    @Bean
+    RuleBasedQueryRouter queryRouterXiaozhi() {
+        return new RuleBasedQueryRouter(hybridContentRetrieverXiaozhi(), routerEnabled);
+    }
+
+    /**
+     * 创建检索增强器
+     * 经查询路由使用混合检索器，问候、确认等消息不检索；检索结果以固定标记拼接在用户原文之后，
+     * 一轮对话结束后记忆据此只保留用户原文（见 TurnCompactor）
+     *
+     * @return 返回检索增强器实例
+     */
+    @Bean
+    RetrievalAugmentor retrievalAugmentorXiaozhi() {
+        PromptTemplate promptTemplate = PromptTemplate.from(
+                "{{userMessage}}" + TurnCompactor.AUGMENTATION_MARKER + "请结合以下资料回答：\n{{contents}}");
+        return DefaultRetrievalAugmentor.builder()
+                .queryRouter(queryRouterXiaozhi())
+                .contentInjector(DefaultContentInjector.builder()
+                        .promptTemplate(promptTemplate)
+                        .build())
                 .build();
     }
 }
\ No newline at end of file
@@ -18,7 +18,7 @@ import static dev.langchain4j.service.spring.AiServiceWiringMode.EXPLICIT;
         streamingChatModel = "qwenStreamingChatModel",
         chatMemoryProvider = "chatMemoryProviderXiaozhi",
         tools = "appointmentTools",
-        contentRetriever = "contentRetrieverXiaozhiPincone"
+        retrievalAugmentor = "retrievalAugmentorXiaozhi"
 )
 public interface XiaozhiAgent {
     /**
@@ -0,0 +1,31 @@
+/*
+ * 单条聊天消息实体类，用于MongoDB按条存储
+ * 该实体类映射到MongoDB中的chat_message_entries集合，每条消息一个文档
+ */
+package com.atguigu.java.ai.langchain4j.bean;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * 单条聊天消息实体类
+ * 同一会话的消息按 seq 递增排列，系统消息的 seq 为 -1；(memoryId, seq) 唯一复合索引由 AppendOnlyChatMemoryLayout 创建
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Document("chat_message_entries")
+public class ChatMessageEntry {
+    // 唯一标识，映射到 MongoDB 文档的 _id 字段
+    @Id
+    private ObjectId id;
+    private Object memoryId; // 对话会话ID
+    private long seq; // 会话内的消息序号，只增不减；系统消息固定为 -1
+    private String digest; // 消息内容摘要，用于比对消息是否变化
+    private String content; // 单条消息的json字符串（旧格式）
+    private byte[] data; // 编码后的单条消息，格式见 ChatMessageFormat
+}
@@ -13,7 +13,7 @@ import org.springframework.data.mongodb.core.mapping.Document;
 
 /**
  * 聊天消息实体类
- * 用于在MongoDB中存储聊天记录的JSON字符串
+ * 用于在MongoDB中存储聊天记录，旧文档为JSON字符串，新文档为编码后的二进制
  */
 @Data
 @AllArgsConstructor
@@ -24,5 +24,6 @@ public class ChatMessages {
     @Id
     private ObjectId messageId;
     //private Long messageId;
-    private String content; // 存储当前聊天记录列表的json字符串
+    private String content; // 存储当前聊天记录列表的json字符串（旧格式，写入新格式后清除）
+    private byte[] data; // 编码后的聊天记录列表，格式见 ChatMessageFormat
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+/*
+ * 历史记录分页查询参数
+ * 用于封装前端分页加载聊天历史的请求数据
+ */
+package com.atguigu.java.ai.langchain4j.bean;
+
+import lombok.Data;
+
+/**
+ * 历史记录分页查询参数
+ * before 与 after 为消息序号游标，都不传时返回最近的 limit 条
+ */
+@Data
+public class HistoryQuery {
+    private Long memoryId; // 对话会话ID
+    private Integer limit; // 每页条数
+    private Long before; // 只取序号小于该值的更早消息
+    private Long after; // 只取序号大于该值的更新消息
+}
@@ -0,0 +1,79 @@
+/*
+ * 知识库管理控制器
+ * 提供本地知识库状态查询与后台重建接口
+ */
+package com.atguigu.java.ai.langchain4j.controller;
+
+import com.atguigu.java.ai.langchain4j.rag.KnowledgeBase;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * 知识库管理控制器
+ * 重建在后台执行，接口立即返回，可通过状态接口查看进度
+ */
+@Tag(name = "知识库管理")
+@RestController
+@RequestMapping("/xiaozhi/knowledge")
+public class KnowledgeController {
+
+    @Autowired
+    private KnowledgeBase knowledgeBase;
+
+    /**
+     * 查询知识库状态
+     *
+     * @return 状态、来源、文档数及最近一次加载耗时
+     */
+    @Operation(summary = "知识库状态")
+    @GetMapping("/status")
+    public Map<String, Object> status() {
+        return knowledgeBase.getStats();
+    }
+
+    /**
+     * 与知识库目录做一次增量同步，只对变化的分段重新向量化
+     *
+     * @return 提交时的知识库状态
+     */
+    @Operation(summary = "增量同步知识库")
+    @PostMapping("/refresh")
+    public Map<String, Object> refresh() {
+        knowledgeBase.refresh();
+        return knowledgeBase.getStats();
+    }
+
+    /**
+     * 丢弃现有向量，重新读取知识库目录并全部重新向量化
+     *
+     * @return 提交时的知识库状态
+     */
+    @Operation(summary = "重建知识库")
+    @PostMapping("/rebuild")
+    public Map<String, Object> rebuild() {
+        knowledgeBase.rebuild();
+        return knowledgeBase.getStats();
+    }
+
+    /**
+     * 用库中分段的原始向量做查询，对比HNSW索引与全量扫描的平均耗时和召回率
+     *
+     * @param queries 查询次数，最多 2000
+     * @param k       每次返回的条数，最多 100
+     * @return 测试结果
+     */
+    @Operation(summary = "向量索引测试")
+    @PostMapping("/benchmark")
+    public Map<String, Object> benchmark(@RequestParam(defaultValue = "200") int queries,
+                                         @RequestParam(defaultValue = "3") int k) {
+        return knowledgeBase.benchmark(queries, k);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * 运行指标控制器
+ * 汇总各缓存与连接组件的统计信息，便于压测和线上排查
+ */
+package com.atguigu.java.ai.langchain4j.controller;
+
+import com.atguigu.java.ai.langchain4j.handler.VoiceSessionRegistry;
+import com.atguigu.java.ai.langchain4j.memory.ConversationSummarizer;
+import com.atguigu.java.ai.langchain4j.rag.BatchingEmbeddingModel;
+import com.atguigu.java.ai.langchain4j.rag.CachingEmbeddingModel;
+import com.atguigu.java.ai.langchain4j.rag.CompositeContentRetriever;
+import com.atguigu.java.ai.langchain4j.rag.HybridContentRetriever;
+import com.atguigu.java.ai.langchain4j.rag.KnowledgeBase;
+import com.atguigu.java.ai.langchain4j.rag.RuleBasedQueryRouter;
+import com.atguigu.java.ai.langchain4j.rag.SemanticAnswerCache;
+import com.atguigu.java.ai.langchain4j.store.MongoChatMemoryStore;
+import com.atguigu.java.ai.langchain4j.store.RedisChatMemoryStore;
+import com.atguigu.java.ai.langchain4j.utils.NlsTokenManager;
+import com.atguigu.java.ai.langchain4j.voice.NlsClientRegistry;
+import com.atguigu.java.ai.langchain4j.voice.TtsAudioCache;
+import com.atguigu.java.ai.langchain4j.voice.VoiceTurnExecutor;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 运行指标控制器
+ * 以只读方式暴露各组件的命中率、刷新次数等统计数据
+ */
+@Tag(name = "运行指标")
+@RestController
+@RequestMapping("/xiaozhi/metrics")
+public class MetricsController {
+
+    @Autowired
+    private NlsTokenManager nlsTokenManager;
+
+    @Autowired
+    private NlsClientRegistry nlsClientRegistry;
+
+    @Autowired
+    private VoiceSessionRegistry voiceSessionRegistry;
+
+    @Autowired
+    private VoiceTurnExecutor voiceTurnExecutor;
+
+    @Autowired
+    private TtsAudioCache ttsAudioCache;
+
+    @Autowired
+    private MongoChatMemoryStore mongoChatMemoryStore;
+
+    @Autowired
+    private RedisChatMemoryStore redisChatMemoryStore;
+
+    @Autowired
+    private ConversationSummarizer conversationSummarizer;
+
+    @Autowired
+    private KnowledgeBase knowledgeBase;
+
+    @Autowired
+    private CachingEmbeddingModel cachingEmbeddingModel;
+
+    @Autowired
+    private BatchingEmbeddingModel batchingEmbeddingModel;
+
+    @Autowired
+    private HybridContentRetriever hybridContentRetriever;
+
+    @Autowired
+    private CompositeContentRetriever compositeContentRetriever;
+
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
+    @Autowired
+    private RuleBasedQueryRouter ruleBasedQueryRouter;
+
+    /**
+     * 获取全部运行指标
+     *
+     * @return 以组件名为键的统计信息
+     */
+    @Operation(summary = "运行指标")
+    @GetMapping
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("nlsToken", nlsTokenManager.getStats());
+        metrics.put("nlsClient", nlsClientRegistry.getStats());
+        metrics.put("voiceSessions", voiceSessionRegistry.getStats());
+        metrics.put("voiceTurns", voiceTurnExecutor.getStats());
+        metrics.put("ttsCache", ttsAudioCache.getStats());
+        metrics.put("chatMemory", mongoChatMemoryStore.getStats());
+        metrics.put("chatMemoryRedis", redisChatMemoryStore.getStats());
+        metrics.put("memorySummarizer", conversationSummarizer.getStats());
+        metrics.put("knowledgeBase", knowledgeBase.getStats());
+        metrics.put("embeddingCache", cachingEmbeddingModel.getStats());
+        metrics.put("embeddingBatches", batchingEmbeddingModel.getStats());
+        metrics.put("hybridRetrieval", hybridContentRetriever.getStats());
+        metrics.put("compositeRetrieval", compositeContentRetriever.getStats());
+        metrics.put("answerCache", semanticAnswerCache.getStats());
+        metrics.put("queryRouter", ruleBasedQueryRouter.getStats());
+        return metrics;
+    }
+}
@@ -6,10 +6,16 @@ package com.atguigu.java.ai.langchain4j.controller;
 
 import com.atguigu.java.ai.langchain4j.assistant.XiaozhiAgent;
 import com.atguigu.java.ai.langchain4j.bean.ChatForm;
+import com.atguigu.java.ai.langchain4j.bean.HistoryQuery;
+import com.atguigu.java.ai.langchain4j.memory.TurnCompactor;
+import com.atguigu.java.ai.langchain4j.rag.SemanticAnswerCache;
 import com.atguigu.java.ai.langchain4j.service.VoiceService;
 import com.atguigu.java.ai.langchain4j.service.impl.AppointmentServiceImpl;
+import com.atguigu.java.ai.langchain4j.store.ChatHistoryPage;
 import com.atguigu.java.ai.langchain4j.store.MongoChatMemoryStore;
 import com.atguigu.java.ai.langchain4j.utils.AliyunTokenUtil;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.message.ChatMessage;
 import dev.langchain4j.data.message.SystemMessage;
@@ -20,11 +26,18 @@ import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -50,11 +63,26 @@ public class XiaozhiController {
     @Autowired
     private VoiceService voiceService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
     private static final Logger logger = LoggerFactory.getLogger(AppointmentServiceImpl.class);
 
+    // 历史记录分页的默认与最大每页条数
+    private static final int DEFAULT_HISTORY_PAGE_SIZE = 30;
+    private static final int MAX_HISTORY_PAGE_SIZE = 200;
+
+    // TTS 文本长度上限，仅用于防止滥用
+    @Value("${voice.tts.max-text-length:10000}")
+    private int maxTtsTextLength;
+
     /**
      * 处理聊天请求
-     * 接收前端发送的聊天表单数据，调用AI助手进行对话并返回流式响应
+     * 接收前端发送的聊天表单数据，调用AI助手进行对话并返回流式响应；
+     * 常见的医院信息类问题优先从语义回答缓存回放
      *
      * @param chatForm 包含会话ID和用户消息的聊天表单
      * @return 返回字符串流，实现流式响应
@@ -76,7 +104,8 @@ public class XiaozhiController {
                 return Flux.empty();
             }
 
-            return xiaozhiAgent.chat(memoryId, message);
+            Long id = memoryId;
+            return semanticAnswerCache.chat(id, message, () -> xiaozhiAgent.chat(id, message));
         } catch (Exception e) {
             logger.error("处理聊天请求时发生异常", e);
             return Flux.error(e);
@@ -107,17 +136,7 @@ public class XiaozhiController {
                     // 设置角色标识：user, ai
                     map.put("role", m.type().name().toLowerCase());
 
-                    // 核心修复：根据消息类型提取内容，解决 m.text() 编译报错
-                    String content = "";
-                    if (m instanceof UserMessage) {
-                        content = ((UserMessage) m).singleText();
-                    } else if (m instanceof AiMessage) {
-                        content = ((AiMessage) m).text();
-                    } else if (m instanceof SystemMessage) {
-                        content = ((SystemMessage) m).text();
-                    }
-
-                    map.put("content", content);
+                    map.put("content", contentOf(m));
                     result.add(map);
                 }
             }
@@ -130,6 +149,68 @@ public class XiaozhiController {
         return result;
     }
 
+    /**
+     * 分页获取指定会话的历史记录
+     * 按消息序号游标翻页，只从存储中读取请求的那一页，响应以流式方式逐条写出；
+     * 不传游标时返回最近的 limit 条，用于聊天界面首次加载。
+     * 整会话存储布局（默认）不支持游标，cursorSupported 为 false，传入游标时返回 400
+     *
+     * @param query 会话ID、每页条数及 before/after 游标
+     * @return 流式JSON：messages（seq、role、content）、hasMoreBefore、hasMoreAfter、cursorSupported
+     */
+    @Operation(summary = "分页历史记录")
+    @PostMapping("/history/page")
+    public ResponseEntity<StreamingResponseBody> getHistoryPage(@RequestBody HistoryQuery query) {
+        Long id = query.getMemoryId();
+        if (id == null) {
+            logger.warn("分页获取历史记录时会话ID为空");
+            return ResponseEntity.badRequest().build();
+        }
+        int limit = query.getLimit() == null ? DEFAULT_HISTORY_PAGE_SIZE
+                : Math.max(1, Math.min(query.getLimit(), MAX_HISTORY_PAGE_SIZE));
+        ChatHistoryPage page;
+        try {
+            page = mongoChatMemoryStore.getHistoryPage(id, query.getBefore(), query.getAfter(), limit);
+        } catch (UnsupportedOperationException e) {
+            logger.warn("分页获取历史记录失败，记忆ID: {}，{}", id, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("messages");
+                for (ChatHistoryPage.Entry entry : page.entries()) {
+                    ChatMessage m = entry.message();
+                    generator.writeStartObject();
+                    generator.writeNumberField("seq", entry.seq());
+                    generator.writeStringField("role", m.type().name().toLowerCase());
+                    generator.writeStringField("content", contentOf(m));
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+                generator.writeBooleanField("hasMoreBefore", page.hasMoreBefore());
+                generator.writeBooleanField("hasMoreAfter", page.hasMoreAfter());
+                generator.writeBooleanField("cursorSupported", page.cursorSupported());
+                generator.writeEndObject();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * 根据消息类型提取展示内容
+     */
+    private static String contentOf(ChatMessage m) {
+        if (m instanceof UserMessage) {
+            return ((UserMessage) m).hasSingleText() ? ((UserMessage) m).singleText() : "";
+        } else if (m instanceof AiMessage) {
+            return TurnCompactor.displayText(((AiMessage) m).text());
+        } else if (m instanceof SystemMessage) {
+            return ((SystemMessage) m).text();
+        }
+        return "";
+    }
 
     /**
      * 删除指定会话的历史记录
@@ -190,10 +271,11 @@ public class XiaozhiController {
                 return ResponseEntity.badRequest().build();
             }
 
+            // 长文本由语音服务分段并行合成，这里只做防滥用的上限保护
             String text = request.get("text");
-            if (text.length() > 1000) { // 限制文本长度，防止过长文本导致的问题
+            if (text.length() > maxTtsTextLength) {
                 logger.warn("TTS请求文本过长: {} 字符", text.length());
-                text = text.substring(0, 1000);
+                text = text.substring(0, maxTtsTextLength);
             }
 
             byte[] audioData = voiceService.textToSpeech(text);
@@ -214,6 +296,48 @@ public class XiaozhiController {
         }
     }
 
+    /**
+     * 流式文本转语音接口
+     * 合成器每产出一段音频就直接写入响应（分块传输），浏览器收到首个分块即可开始播放，
+     * 服务端不再缓存整段音频
+     *
+     * @param request 请求参数Map，包含待转换的文本内容
+     * @return 分块传输的音频流，参数无效时返回400
+     */
+    @PostMapping(value = "/tts/stream", produces = "audio/mpeg")
+    public ResponseEntity<StreamingResponseBody> streamTextToSpeech(@RequestBody Map<String, String> request) {
+        if (request == null || request.get("text") == null || request.get("text").trim().isEmpty()) {
+            logger.warn("流式TTS请求参数无效");
+            return ResponseEntity.badRequest().build();
+        }
+
+        String text = request.get("text");
+        if (text.length() > maxTtsTextLength) {
+            logger.warn("流式TTS请求文本过长: {} 字符", text.length());
+            text = text.substring(0, maxTtsTextLength);
+        }
+        final String ttsText = text;
+
+        StreamingResponseBody body = outputStream -> {
+            WritableByteChannel channel = Channels.newChannel(outputStream);
+            voiceService.streamTextToSpeech(ttsText, buffer -> {
+                try {
+                    // 直接写出合成器给出的缓冲区并立即刷新，不做整段拼接
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    outputStream.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("写出音频分块失败", e);
+                }
+            }, null);
+        };
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, "audio/mpeg")
+                .body(body);
+    }
+
 
 
 
@@ -4,33 +4,73 @@ import com.alibaba.nls.client.protocol.asr.SpeechTranscriber;
 import com.alibaba.nls.client.protocol.asr.SpeechTranscriberListener;
 import com.alibaba.nls.client.protocol.asr.SpeechTranscriberResponse;
 import com.atguigu.java.ai.langchain4j.assistant.XiaozhiAgent;
+import com.atguigu.java.ai.langchain4j.exception.VoiceServiceException;
 import com.atguigu.java.ai.langchain4j.service.VoiceService;
-import com.atguigu.java.ai.langchain4j.utils.AliyunTokenUtil;
+import com.atguigu.java.ai.langchain4j.voice.NlsClientRegistry;
+import com.atguigu.java.ai.langchain4j.voice.SentenceSplitter;
+import com.atguigu.java.ai.langchain4j.voice.VoiceTurnExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
 import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+import reactor.core.Disposable;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * 优化版通话处理器：解决断断续续问题
- * 策略：完整思考 -> 完整显示 -> 等待5s -> 完整播报
+ * 通话处理器
+ * 流水线模式（默认）：大模型流式输出按句切分，第 N 句合成播报的同时第 N+1 句仍在生成，首包延迟约为一句话；
+ * 整段模式（兜底）：完整思考 -> 完整显示 -> 等待5s -> 完整播报
+ * 处理器为单例，每个连接的状态由 {@link VoiceSessionRegistry} 按会话保存
  */
 public class CallHandler extends BinaryWebSocketHandler {
+    private static final Logger logger = LoggerFactory.getLogger(CallHandler.class);
+
+    // 分句参数：短于 6 个字的句子与下一句合并，超过 40 个字时允许在逗号处切分
+    private static final int MIN_SENTENCE_LENGTH = 6;
+    private static final int MAX_SENTENCE_LENGTH = 40;
+    // 分句器不会产生空句，用空串标记回答结束
+    private static final String END_OF_REPLY = "";
+    private static final String BUSY_REPLY = "当前咨询人数较多，请稍后再说一遍。";
+
+    private static final String CHANNEL = "call";
+
+    /**
+     * 语音回复模式
+     */
+    public enum ReplyMode {
+        // 按句流水线合成并逐句推送音频
+        PIPELINED,
+        // 等待完整回答后整段合成
+        BUFFERED
+    }
+
     private final VoiceService voiceService;
     private final XiaozhiAgent xiaozhiAgent;
-    private final AliyunTokenUtil aliyunTokenUtil;
+    private final NlsClientRegistry nlsClientRegistry;
+    private final VoiceSessionRegistry voiceSessionRegistry;
+    private final VoiceTurnExecutor voiceTurnExecutor;
     private final String appKey;
-    private SpeechTranscriber transcriber;
-
-    // 状态锁：标记 AI 是否正在处理（思考或播报中）
-    private final AtomicBoolean isAiSpeaking = new AtomicBoolean(false);
+    private final ReplyMode replyMode;
 
-    public CallHandler(VoiceService voiceService, XiaozhiAgent xiaozhiAgent, AliyunTokenUtil aliyunTokenUtil, String appKey) {
+    public CallHandler(VoiceService voiceService, XiaozhiAgent xiaozhiAgent, NlsClientRegistry nlsClientRegistry,
+                       VoiceSessionRegistry voiceSessionRegistry, VoiceTurnExecutor voiceTurnExecutor,
+                       String appKey, ReplyMode replyMode) {
         this.voiceService = voiceService;
         this.xiaozhiAgent = xiaozhiAgent;
-        this.aliyunTokenUtil = aliyunTokenUtil;
+        this.nlsClientRegistry = nlsClientRegistry;
+        this.voiceSessionRegistry = voiceSessionRegistry;
+        this.voiceTurnExecutor = voiceTurnExecutor;
         this.appKey = appKey;
+        this.replyMode = replyMode;
     }
 
     /**
@@ -42,15 +82,18 @@ public class CallHandler extends BinaryWebSocketHandler {
             if (session.isOpen()) {
                 session.sendMessage(new TextMessage(message));
             }
-        } catch (Exception e) { e.printStackTrace(); }
+        } catch (Exception e) { logger.error("发送文本指令失败", e); }
     }
 
     @Override
-    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+    public void afterConnectionEstablished(WebSocketSession rawSession) throws Exception {
+        final VoiceSession voiceSession = voiceSessionRegistry.open(CHANNEL, rawSession);
+        final WebSocketSession session = voiceSession.getWebSocketSession();
         SpeechTranscriberListener listener = new SpeechTranscriberListener() {
             @Override
             public void onSentenceEnd(SpeechTranscriberResponse response) {
-                if (isAiSpeaking.get()) return;
+                // 锁定 ASR：同一连接同一时刻只处理一轮回复
+                if (!voiceSession.tryStartTurn()) return;
 
                 final String userText = response.getTransSentenceText();
                 final Long memoryId = (session.getAttributes().get("memoryId") != null) ?
@@ -58,68 +101,187 @@ public class CallHandler extends BinaryWebSocketHandler {
 
                 sendTextMessage(session, "USER_FINAL:" + userText);
 
-                new Thread(() -> {
-                    try {
-                        isAiSpeaking.set(true); // 锁定 ASR
-                        sendTextMessage(session, "STATE:AI_THINKING");
-
-                        // 1. 等待大模型完全生成好文字
-                        StringBuilder fullAiResponse = new StringBuilder();
-                        xiaozhiAgent.chat(memoryId, userText)
-                                .doOnNext(text -> {
-                                    fullAiResponse.append(text);
-                                    sendTextMessage(session, "AI_INTERIM:" + text);
-                                })
-                                .blockLast(); // 强行同步等待生成结束
-
-                        String finalReply = fullAiResponse.toString();
-
-                        // 2. 实现你的需求：等 5 秒再语音播报
-                        sendTextMessage(session, "STATE:AI_WAIT_5S");
-                        Thread.sleep(5000);
-
-                        // 3. 将【完整回答】转语音并发送一个【完整的 BinaryMessage】
-                        sendTextMessage(session, "STATE:AI_SPEAKING");
-
-                        // 调用你已有的非流式 tts 方法，返回完整 byte[]
-                        byte[] fullAudioData = voiceService.textToSpeech(finalReply);
-
-                        if (fullAudioData != null && fullAudioData.length > 0) {
-                            // 核心：一次性发送，彻底消除断断续续
-                            session.sendMessage(new BinaryMessage(fullAudioData));
-                        }
-
-                        // 4. 解锁 ASR
-                        isAiSpeaking.set(false);
-                        sendTextMessage(session, "STATE:AI_SILENT");
-                    } catch (Exception e) {
-                        isAiSpeaking.set(false);
-                        sendTextMessage(session, "STATE:AI_SILENT");
-                        e.printStackTrace();
-                    }
-                }).start();
+                try {
+                    Future<?> turn = voiceTurnExecutor.submit(() -> runTurn(voiceSession, memoryId, userText));
+                    voiceSession.setTurn(turn);
+                } catch (RejectedExecutionException e) {
+                    // 并发与排队均已满，直接告知用户稍后再试
+                    logger.warn("语音轮次执行器已满，拒绝会话 {} 的请求", voiceSession.getId());
+                    voiceSession.finishTurn();
+                    sendTextMessage(session, "STATE:AI_BUSY");
+                    sendTextMessage(session, "AI_INTERIM:" + BUSY_REPLY);
+                    sendTextMessage(session, "STATE:AI_SILENT");
+                }
             }
 
             @Override public void onTranscriptionResultChange(SpeechTranscriberResponse res) {
-                if (!isAiSpeaking.get()) sendTextMessage(session, "USER_INTERIM:" + res.getTransSentenceText());
+                if (!voiceSession.isAiSpeaking()) sendTextMessage(session, "USER_INTERIM:" + res.getTransSentenceText());
+            }
+            @Override public void onFail(SpeechTranscriberResponse res) {
+                logger.error("通话ASR失败: {}", res.getStatusText());
             }
-            @Override public void onFail(SpeechTranscriberResponse res) { isAiSpeaking.set(false); }
             @Override public void onTranscriberStart(SpeechTranscriberResponse res) {}
             @Override public void onSentenceBegin(SpeechTranscriberResponse res) {}
             @Override public void onTranscriptionComplete(SpeechTranscriberResponse res) {}
         };
 
-        transcriber = new SpeechTranscriber(voiceService.getNlsClient(), listener);
+        voiceSession.setLease(nlsClientRegistry.acquire());
+        SpeechTranscriber transcriber = new SpeechTranscriber(voiceSession.getLease().client(), listener);
         transcriber.setAppKey(appKey);
         transcriber.addCustomedParam("max_sentence_silence", 800);
-        transcriber.start();
+        voiceSession.setTranscriber(transcriber);
+        // 连接已断开时识别器已在 setTranscriber 中关闭
+        if (!voiceSession.isClosed()) {
+            transcriber.start();
+        }
+    }
+
+    /**
+     * 执行一轮回复，运行在 {@link VoiceTurnExecutor} 中
+     */
+    private void runTurn(VoiceSession voiceSession, Long memoryId, String userText) {
+        WebSocketSession session = voiceSession.getWebSocketSession();
+        long startedAt = System.nanoTime();
+        try {
+            sendTextMessage(session, "STATE:AI_THINKING");
+
+            if (replyMode == ReplyMode.PIPELINED) {
+                replyPipelined(voiceSession, memoryId, userText, startedAt);
+            } else {
+                replyBuffered(session, memoryId, userText);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.info("连接已关闭，终止语音回复: {}", voiceSession.getId());
+        } catch (Exception e) {
+            logger.error("语音通话回复失败", e);
+        } finally {
+            voiceTurnExecutor.recordStage("turn", System.nanoTime() - startedAt);
+            // 解锁 ASR
+            voiceSession.finishTurn();
+            sendTextMessage(session, "STATE:AI_SILENT");
+        }
+    }
+
+    /**
+     * 流水线回复：边生成边分句，当前线程按顺序逐句合成并推送音频
+     * 大模型在回调线程上继续输出后续句子，与合成并行进行
+     */
+    private void replyPipelined(VoiceSession voiceSession, Long memoryId, String userText, long startedAt)
+            throws Exception {
+        WebSocketSession session = voiceSession.getWebSocketSession();
+        BlockingQueue<String> sentences = new LinkedBlockingQueue<>();
+        SentenceSplitter splitter = new SentenceSplitter(MIN_SENTENCE_LENGTH, MAX_SENTENCE_LENGTH);
+        AtomicBoolean firstToken = new AtomicBoolean(true);
+
+        // 1. 订阅大模型输出，完整句子进入合成队列
+        Disposable generation = xiaozhiAgent.chat(memoryId, userText)
+                .doOnNext(text -> {
+                    if (firstToken.compareAndSet(true, false)) {
+                        voiceTurnExecutor.recordStage("llmFirstToken", System.nanoTime() - startedAt);
+                    }
+                    sendTextMessage(session, "AI_INTERIM:" + text);
+                    sentences.addAll(splitter.append(text));
+                })
+                .doFinally(signal -> {
+                    voiceTurnExecutor.recordStage("llm", System.nanoTime() - startedAt);
+                    String rest = splitter.flush();
+                    if (rest != null) {
+                        sentences.add(rest);
+                    }
+                    sentences.add(END_OF_REPLY);
+                })
+                .subscribe(null, e -> logger.error("大模型生成回答失败", e));
+        voiceSession.setGeneration(generation);
+
+        // 2. 按顺序合成每一句，每句作为一段完整的 MP3 发送，前端排队衔接播放
+        boolean speaking = false;
+        try {
+            while (true) {
+                String sentence = sentences.take();
+                if (sentence.isEmpty()) {
+                    break;
+                }
+                byte[] audio = synthesize(sentence);
+                if (audio.length == 0 || !session.isOpen()) {
+                    continue;
+                }
+                if (!speaking) {
+                    voiceTurnExecutor.recordStage("firstAudio", System.nanoTime() - startedAt);
+                    sendTextMessage(session, "STATE:AI_SPEAKING");
+                    speaking = true;
+                }
+                session.sendMessage(new BinaryMessage(audio));
+            }
+        } finally {
+            generation.dispose();
+        }
+    }
+
+    /**
+     * 整段回复：等待完整回答后一次性合成并发送
+     */
+    private void replyBuffered(WebSocketSession session, Long memoryId, String userText) throws Exception {
+        // 1. 等待大模型完全生成好文字
+        long startedAt = System.nanoTime();
+        StringBuilder fullAiResponse = new StringBuilder();
+        xiaozhiAgent.chat(memoryId, userText)
+                .doOnNext(text -> {
+                    fullAiResponse.append(text);
+                    sendTextMessage(session, "AI_INTERIM:" + text);
+                })
+                .blockLast(); // 强行同步等待生成结束
+        voiceTurnExecutor.recordStage("llm", System.nanoTime() - startedAt);
+
+        String finalReply = fullAiResponse.toString();
+
+        // 2. 等 5 秒再语音播报
+        sendTextMessage(session, "STATE:AI_WAIT_5S");
+        Thread.sleep(5000);
+
+        // 3. 将【完整回答】转语音并发送一个【完整的 BinaryMessage】
+        sendTextMessage(session, "STATE:AI_SPEAKING");
+        long ttsStartedAt = System.nanoTime();
+        byte[] fullAudioData = voiceService.textToSpeech(finalReply);
+        voiceTurnExecutor.recordStage("tts", System.nanoTime() - ttsStartedAt);
+
+        if (fullAudioData != null && fullAudioData.length > 0) {
+            session.sendMessage(new BinaryMessage(fullAudioData));
+        }
+    }
+
+    /**
+     * 通过流式合成接口合成一句话，收集为一段完整音频
+     */
+    private byte[] synthesize(String sentence) {
+        long startedAt = System.nanoTime();
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        try {
+            voiceService.streamTextToSpeech(sentence, buffer -> {
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                audio.write(bytes, 0, bytes.length);
+            }, null);
+        } catch (VoiceServiceException e) {
+            // 单句合成失败时跳过该句，不影响后续句子播报
+            logger.error("逐句语音合成失败: {}", sentence, e);
+        }
+        voiceTurnExecutor.recordStage("tts", System.nanoTime() - startedAt);
+        return audio.toByteArray();
     }
 
     @Override
     protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+        VoiceSession voiceSession = voiceSessionRegistry.get(session.getId());
         // AI 忙碌时，不处理任何用户音频输入
-        if (transcriber != null && !isAiSpeaking.get()) {
-            transcriber.send(message.getPayload().array());
+        if (voiceSession != null && voiceSession.getTranscriber() != null && !voiceSession.isAiSpeaking()) {
+            voiceSession.getTranscriber().send(message.getPayload().array());
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+        // 停止识别、取消进行中的生成与合成，并归还共享客户端租约
+        voiceSessionRegistry.close(session.getId());
+    }
+}
@@ -1,12 +1,11 @@
 package com.atguigu.java.ai.langchain4j.handler;
 
 import com.alibaba.nls.client.protocol.InputFormatEnum;
-import com.alibaba.nls.client.protocol.NlsClient;
 import com.alibaba.nls.client.protocol.SampleRateEnum;
 import com.alibaba.nls.client.protocol.asr.SpeechTranscriber;
 import com.alibaba.nls.client.protocol.asr.SpeechTranscriberListener;
 import com.alibaba.nls.client.protocol.asr.SpeechTranscriberResponse;
-import com.atguigu.java.ai.langchain4j.utils.AliyunTokenUtil;
+import com.atguigu.java.ai.langchain4j.voice.NlsClientRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.socket.*;
@@ -17,22 +16,27 @@ import java.io.IOException;
 /**
  * 语音识别 WebSocket 处理器
  * 接收前端 PCM 音频流，调用阿里 NLS SDK 进行实时转写
+ * 处理器为单例，每个连接的识别器由 {@link VoiceSessionRegistry} 按会话保存
  */
 public class VoiceHandler extends BinaryWebSocketHandler {
     private static final Logger logger = LoggerFactory.getLogger(VoiceHandler.class);
-    private final AliyunTokenUtil aliyunTokenUtil;
+    private static final String CHANNEL = "asr";
+    private final NlsClientRegistry nlsClientRegistry;
+    private final VoiceSessionRegistry voiceSessionRegistry;
     private final String appKey;
-    private SpeechTranscriber transcriber;
 
-    public VoiceHandler(AliyunTokenUtil aliyunTokenUtil, String appKey) {
-        this.aliyunTokenUtil = aliyunTokenUtil;
+    public VoiceHandler(NlsClientRegistry nlsClientRegistry, VoiceSessionRegistry voiceSessionRegistry, String appKey) {
+        this.nlsClientRegistry = nlsClientRegistry;
+        this.voiceSessionRegistry = voiceSessionRegistry;
         this.appKey = appKey;
     }
 
     @Override
-    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        String token = aliyunTokenUtil.getToken();
-        NlsClient client = new NlsClient(token);
+    public void afterConnectionEstablished(WebSocketSession rawSession) throws Exception {
+        VoiceSession voiceSession = voiceSessionRegistry.open(CHANNEL, rawSession);
+        WebSocketSession session = voiceSession.getWebSocketSession();
+        // 复用共享客户端，不再为每个连接创建 NlsClient 和事件循环
+        voiceSession.setLease(nlsClientRegistry.acquire());
 
         // 核心修复：补全 SpeechTranscriberListener 接口要求的所有抽象方法
         SpeechTranscriberListener listener = new SpeechTranscriberListener() {
@@ -74,7 +78,7 @@ public class VoiceHandler extends BinaryWebSocketHandler {
         };
 
 // 在 afterConnectionEstablished 方法中
-        transcriber = new SpeechTranscriber(client, listener);
+        SpeechTranscriber transcriber = new SpeechTranscriber(voiceSession.getLease().client(), listener);
         transcriber.setAppKey(appKey);
         transcriber.setFormat(InputFormatEnum.PCM);
         transcriber.setSampleRate(SampleRateEnum.SAMPLE_RATE_16K);
@@ -88,25 +92,27 @@ public class VoiceHandler extends BinaryWebSocketHandler {
 // 开启逆向文本转换，将“二零二三”自动转为“2023”
         transcriber.setEnableITN(true);
 
-        transcriber.start();
+        voiceSession.setTranscriber(transcriber);
+        // 连接已断开时识别器已在 setTranscriber 中关闭
+        if (!voiceSession.isClosed()) {
+            transcriber.start();
+        }
     }
 
     @Override
     protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
         // 接收前端采集的二进制 PCM 音频块并转发给阿里服务端
-        if (transcriber != null) {
-            transcriber.send(message.getPayload().array());
+        VoiceSession voiceSession = voiceSessionRegistry.get(session.getId());
+        if (voiceSession != null && voiceSession.getTranscriber() != null) {
+            voiceSession.getTranscriber().send(message.getPayload().array());
         }
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         // 连接关闭时务必释放资源
-        if (transcriber != null) {
-            transcriber.stop();
-            transcriber.close();
-            logger.info("WebSocket 连接已关闭，ASR 资源已释放");
-        }
+        voiceSessionRegistry.close(session.getId());
+        logger.info("WebSocket 连接已关闭，ASR 资源已释放");
     }
 
     /**
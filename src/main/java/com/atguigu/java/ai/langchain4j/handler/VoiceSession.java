@@ -0,0 +1,185 @@
+package com.atguigu.java.ai.langchain4j.handler;
+
+import com.alibaba.nls.client.protocol.asr.SpeechTranscriber;
+import com.atguigu.java.ai.langchain4j.voice.NlsClientRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.WebSocketSession;
+import reactor.core.Disposable;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 单个语音连接的状态
+ * 处理器是单例，连接相关的识别器、客户端租约、播报状态和进行中的任务都保存在这里，
+ * 关闭时统一回收
+ */
+public class VoiceSession {
+
+    private static final Logger logger = LoggerFactory.getLogger(VoiceSession.class);
+
+    private final String id;
+    private final String channel;
+    private final WebSocketSession webSocketSession;
+
+    // close() 与 setTranscriber 都可能释放识别器，取出后置空保证只释放一次
+    private final AtomicReference<SpeechTranscriber> transcriber = new AtomicReference<>();
+    private volatile NlsClientRegistry.Lease lease;
+    private volatile Disposable generation;
+    private volatile Future<?> turn;
+
+    // 标记 AI 是否正在处理（思考或播报中）
+    private final AtomicBoolean aiSpeaking = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    VoiceSession(String channel, WebSocketSession webSocketSession) {
+        this.id = webSocketSession.getId();
+        this.channel = channel;
+        this.webSocketSession = webSocketSession;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return 线程安全的会话（发送已串行化）
+     */
+    public WebSocketSession getWebSocketSession() {
+        return webSocketSession;
+    }
+
+    public SpeechTranscriber getTranscriber() {
+        return transcriber.get();
+    }
+
+    /**
+     * 记录语音识别器，会话已关闭时立即停止并关闭
+     */
+    public void setTranscriber(SpeechTranscriber transcriber) {
+        this.transcriber.set(transcriber);
+        if (closed.get()) {
+            releaseTranscriber();
+        }
+    }
+
+    public NlsClientRegistry.Lease getLease() {
+        return lease;
+    }
+
+    /**
+     * 记录客户端租约，会话已关闭时立即归还（租约可重复关闭）
+     */
+    public void setLease(NlsClientRegistry.Lease lease) {
+        this.lease = lease;
+        if (closed.get() && lease != null) {
+            lease.close();
+        }
+    }
+
+    /**
+     * 记录进行中的大模型流式回复
+     * 赋值后再检查一次关闭状态：会话在赋值前已关闭时 close() 看不到它，需要在这里释放
+     */
+    public void setGeneration(Disposable generation) {
+        this.generation = generation;
+        if (closed.get() && generation != null) {
+            generation.dispose();
+        }
+    }
+
+    /**
+     * 记录进行中的一轮处理任务，会话已关闭时立即取消
+     */
+    public void setTurn(Future<?> turn) {
+        this.turn = turn;
+        if (closed.get() && turn != null) {
+            turn.cancel(true);
+        }
+    }
+
+    public boolean isAiSpeaking() {
+        return aiSpeaking.get();
+    }
+
+    /**
+     * 尝试开始一轮 AI 回复，已有回复在进行时返回 false
+     */
+    public boolean tryStartTurn() {
+        return !closed.get() && aiSpeaking.compareAndSet(false, true);
+    }
+
+    /**
+     * 结束当前回复，恢复接收用户语音
+     */
+    public void finishTurn() {
+        generation = null;
+        turn = null;
+        aiSpeaking.set(false);
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * 回收连接占用的全部资源，可重复调用
+     *
+     * @return 是否全部资源都已正常释放
+     */
+    boolean close() {
+        if (!closed.compareAndSet(false, true)) {
+            return true;
+        }
+
+        Disposable currentGeneration = generation;
+        if (currentGeneration != null) {
+            currentGeneration.dispose();
+        }
+        Future<?> currentTurn = turn;
+        if (currentTurn != null) {
+            currentTurn.cancel(true);
+        }
+
+        boolean clean = releaseTranscriber();
+
+        NlsClientRegistry.Lease currentLease = lease;
+        if (currentLease != null) {
+            currentLease.close();
+        }
+
+        aiSpeaking.set(false);
+        return clean;
+    }
+
+    /**
+     * 停止并关闭识别器
+     *
+     * @return 是否正常关闭（没有识别器时也返回 true）
+     */
+    private boolean releaseTranscriber() {
+        SpeechTranscriber currentTranscriber = transcriber.getAndSet(null);
+        if (currentTranscriber == null) {
+            return true;
+        }
+        try {
+            currentTranscriber.stop();
+        } catch (Exception e) {
+            // 识别尚未开始或已因失败结束时 stop 会抛异常，忽略即可
+            logger.debug("停止语音识别失败，会话: {}", id, e);
+        }
+        try {
+            currentTranscriber.close();
+            return true;
+        } catch (Exception e) {
+            logger.error("关闭语音识别器失败，会话: {}", id, e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.atguigu.java.ai.langchain4j.handler;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 语音会话注册表
+ * 以 WebSocketSession id 为键保存每个连接的 {@link VoiceSession}，连接关闭时回收资源；
+ * 后台定期清理已断开但未收到关闭回调的会话，并统计在线会话与资源泄漏数量
+ */
+@Component
+public class VoiceSessionRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(VoiceSessionRegistry.class);
+
+    // 多个线程会同时写同一个连接（文字推送与音频推送），发送需串行化
+    private static final int SEND_TIME_LIMIT_MS = 10_000;
+    private static final int SEND_BUFFER_SIZE_LIMIT = 10 * 1024 * 1024;
+    private static final long SWEEP_INTERVAL_SECONDS = 60;
+
+    private final Map<String, VoiceSession> sessions = new ConcurrentHashMap<>();
+    private final LongAdder openedCount = new LongAdder();
+    private final LongAdder closedCount = new LongAdder();
+    private final LongAdder leakedCount = new LongAdder();
+    private ScheduledExecutorService sweeper;
+
+    @PostConstruct
+    public void init() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "voice-session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 注册新连接
+     *
+     * @param channel 连接类型，如 call、asr
+     * @param session 原始 WebSocket 会话
+     * @return 新建的会话状态
+     */
+    public VoiceSession open(String channel, WebSocketSession session) {
+        WebSocketSession concurrentSession = new ConcurrentWebSocketSessionDecorator(
+                session, SEND_TIME_LIMIT_MS, SEND_BUFFER_SIZE_LIMIT);
+        VoiceSession voiceSession = new VoiceSession(channel, concurrentSession);
+        VoiceSession previous = sessions.put(voiceSession.getId(), voiceSession);
+        if (previous != null) {
+            release(previous, false);
+        }
+        openedCount.increment();
+        return voiceSession;
+    }
+
+    /**
+     * 获取连接对应的会话状态
+     *
+     * @param sessionId WebSocketSession id
+     * @return 会话状态，已关闭或不存在时返回 null
+     */
+    public VoiceSession get(String sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    /**
+     * 关闭连接并回收其资源
+     *
+     * @param sessionId WebSocketSession id
+     */
+    public void close(String sessionId) {
+        VoiceSession voiceSession = sessions.remove(sessionId);
+        if (voiceSession != null) {
+            release(voiceSession, false);
+        }
+    }
+
+    /**
+     * @param leaked 会话是否由后台清理发现（已视为泄漏），每个会话最多计一次泄漏
+     */
+    private void release(VoiceSession voiceSession, boolean leaked) {
+        boolean clean = voiceSession.close();
+        if (leaked || !clean) {
+            leakedCount.increment();
+        }
+        closedCount.increment();
+        logger.info("语音会话已关闭并回收资源: {} ({})", voiceSession.getId(), voiceSession.getChannel());
+    }
+
+    /**
+     * 清理连接已断开但仍在注册表中的会话，视为一次资源泄漏
+     */
+    void sweep() {
+        for (VoiceSession voiceSession : sessions.values()) {
+            if (!voiceSession.getWebSocketSession().isOpen()
+                    && sessions.remove(voiceSession.getId(), voiceSession)) {
+                logger.warn("发现未正常关闭的语音会话，强制回收: {}", voiceSession.getId());
+                release(voiceSession, true);
+            }
+        }
+    }
+
+    /**
+     * 获取会话统计信息
+     *
+     * @return 在线会话数（按连接类型）、累计打开/关闭数及泄漏数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Long> live = new LinkedHashMap<>();
+        for (VoiceSession voiceSession : sessions.values()) {
+            live.merge(voiceSession.getChannel(), 1L, Long::sum);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("liveSessions", sessions.size());
+        stats.put("liveByChannel", live);
+        stats.put("opened", openedCount.sum());
+        stats.put("closed", closedCount.sum());
+        stats.put("leaked", leakedCount.sum());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        for (String sessionId : sessions.keySet()) {
+            close(sessionId);
+        }
+    }
+}
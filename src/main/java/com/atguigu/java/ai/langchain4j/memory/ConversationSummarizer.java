@@ -0,0 +1,172 @@
+package com.atguigu.java.ai.langchain4j.memory;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.chat.ChatLanguageModel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对话摘要生成器
+ * 把超出token预算而被移出记忆的早期对话与已有摘要合并为新的摘要，在独立线程池中调用大模型，不占用对话请求的线程
+ */
+@Component
+public class ConversationSummarizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationSummarizer.class);
+
+    private static final String INSTRUCTION = "你是对话记录整理助手。请把\"已有摘要\"和\"新增对话\"合并为一段新的摘要，"
+            + "保留用户的身份信息、就诊需求、已确认的预约结果和尚未完成的事项，省略寒暄和重复内容。"
+            + "只输出摘要正文，不超过%d个字。";
+
+    // 单条消息写入摘要提示词时的最大长度
+    private static final int MAX_MESSAGE_CHARS = 500;
+
+    @Autowired
+    @Qualifier("qwenChatModel")
+    private ChatLanguageModel chatLanguageModel;
+
+    // 摘要最大字数
+    @Value("${chat.memory.summary.max-chars:300}")
+    private int maxSummaryChars;
+
+    // 同时进行的摘要任务数
+    @Value("${chat.memory.summary.pool-size:2}")
+    private int poolSize;
+
+    // 排队的摘要任务上限，超出时放弃本次摘要
+    @Value("${chat.memory.summary.max-queued:100}")
+    private int maxQueued;
+
+    private ThreadPoolExecutor executor;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalMillis = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger index = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxQueued), r -> {
+                    Thread thread = new Thread(r, "memory-summarizer-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 异步生成新的摘要
+     *
+     * @param previousSummary 已有摘要，可为空
+     * @param evicted         被移出记忆的消息
+     * @return 新摘要；线程池已满或大模型调用失败时以异常结束
+     */
+    public CompletableFuture<String> summarize(String previousSummary, List<ChatMessage> evicted) {
+        try {
+            CompletableFuture<String> future = CompletableFuture.supplyAsync(
+                    () -> doSummarize(previousSummary, evicted), executor);
+            submitted.increment();
+            return future;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private String doSummarize(String previousSummary, List<ChatMessage> evicted) {
+        long start = System.currentTimeMillis();
+        try {
+            StringBuilder prompt = new StringBuilder();
+            prompt.append("已有摘要：\n").append(previousSummary == null || previousSummary.isBlank() ? "无" : previousSummary);
+            prompt.append("\n\n新增对话：\n");
+            for (ChatMessage message : evicted) {
+                appendTranscript(prompt, message);
+            }
+
+            String summary = chatLanguageModel.chat(List.of(
+                    SystemMessage.from(String.format(INSTRUCTION, maxSummaryChars)),
+                    UserMessage.from(prompt.toString()))).aiMessage().text();
+            completed.increment();
+            return summary == null ? previousSummary : summary.trim();
+        } catch (RuntimeException e) {
+            failed.increment();
+            logger.error("生成对话摘要失败", e);
+            throw e;
+        } finally {
+            totalMillis.add(System.currentTimeMillis() - start);
+        }
+    }
+
+    private static void appendTranscript(StringBuilder prompt, ChatMessage message) {
+        if (message instanceof UserMessage userMessage && userMessage.hasSingleText()) {
+            prompt.append("用户：").append(truncate(userMessage.singleText())).append('\n');
+        } else if (message instanceof AiMessage aiMessage) {
+            if (aiMessage.text() != null && !aiMessage.text().isBlank()) {
+                prompt.append("助手：").append(truncate(aiMessage.text())).append('\n');
+            }
+            if (aiMessage.hasToolExecutionRequests()) {
+                for (ToolExecutionRequest request : aiMessage.toolExecutionRequests()) {
+                    prompt.append("助手调用工具 ").append(request.name())
+                            .append("：").append(truncate(request.arguments())).append('\n');
+                }
+            }
+        } else if (message instanceof ToolExecutionResultMessage resultMessage) {
+            prompt.append("工具 ").append(resultMessage.toolName())
+                    .append(" 返回：").append(truncate(resultMessage.text())).append('\n');
+        }
+    }
+
+    private static String truncate(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.length() <= MAX_MESSAGE_CHARS ? text : text.substring(0, MAX_MESSAGE_CHARS) + "…";
+    }
+
+    /**
+     * 获取摘要任务统计信息
+     *
+     * @return 提交、完成、失败、拒绝次数及平均耗时（毫秒）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long done = completed.sum() + failed.sum();
+        stats.put("submitted", submitted.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("avgMs", done == 0 ? 0 : totalMillis.sum() / done);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,292 @@
+package com.atguigu.java.ai.langchain4j.memory;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按token预算控制的聊天记忆
+ * 消息总量（估算值）超出预算时，从最早的一轮对话开始整轮移出，保证工具调用请求与结果不会被拆开，
+ * 当前这一轮永远保留；移出的对话交给 ConversationSummarizer 异步合并进摘要，
+ * 摘要附在系统消息末尾保存，不影响提示词中消息的角色交替；
+ * 开启轮次压缩时，每轮结束后按 TurnCompactor 去掉参考资料和工具调用过程再保存。
+ * 同一会话可能同时存在多个实例（如对话服务与回答缓存各自获取），读改写使用按记忆ID分段的共享锁，
+ * 待摘要的消息和摘要任务状态也按记忆ID共享，保证同一会话的写入和摘要不会互相覆盖
+ */
+public class TokenBudgetChatMemory implements ChatMemory {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenBudgetChatMemory.class);
+
+    // 系统消息中摘要部分的分隔标记
+    static final String SUMMARY_MARKER = "\n\n【此前对话摘要】\n";
+
+    // 按记忆ID分段的锁，同一会话的所有实例共用一把
+    private static final int LOCK_STRIPES = 256;
+    private static final Object[] LOCKS = new Object[LOCK_STRIPES];
+
+    static {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private final Object id;
+    private final ChatMemoryStore store;
+    private final int maxTokens;
+    private final ConversationSummarizer summarizer;
+    private final boolean compactTurns;
+
+    // 待摘要消息的上限，摘要持续失败时丢弃最早的消息
+    private static final int MAX_PENDING_MESSAGES = 200;
+
+    // 按记忆ID共享的摘要状态，没有待摘要消息且没有摘要任务时移除
+    private static final ConcurrentHashMap<Object, SummaryState> SUMMARY_STATES = new ConcurrentHashMap<>();
+
+    private final Object lock;
+
+    /**
+     * @param id           记忆ID
+     * @param store        记忆存储
+     * @param maxTokens    token预算
+     * @param summarizer   摘要生成器，为空时移出的对话直接丢弃
+     * @param compactTurns 是否在每轮结束后压缩该轮消息
+     */
+    public TokenBudgetChatMemory(Object id, ChatMemoryStore store, int maxTokens,
+                                 ConversationSummarizer summarizer, boolean compactTurns) {
+        this.id = id;
+        this.store = store;
+        this.maxTokens = maxTokens;
+        this.summarizer = summarizer;
+        this.compactTurns = compactTurns;
+        this.lock = LOCKS[Math.floorMod(id.hashCode(), LOCK_STRIPES)];
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public void add(ChatMessage message) {
+        addAll(List.of(message));
+    }
+
+    /**
+     * 在一次加锁中按顺序追加多条消息，中间不会插入同一会话的其他写入
+     *
+     * @param newMessages 要追加的消息
+     */
+    public void addAll(List<ChatMessage> newMessages) {
+        List<ChatMessage> evicted;
+        synchronized (lock) {
+            List<ChatMessage> messages = new ArrayList<>(store.getMessages(id));
+            boolean changed = false;
+            for (ChatMessage message : newMessages) {
+                changed |= append(messages, message);
+            }
+            if (!changed) {
+                return;
+            }
+            evicted = enforceBudget(messages);
+            store.updateMessages(id, messages);
+            if (!evicted.isEmpty() && summarizer != null) {
+                SummaryState state = SUMMARY_STATES.computeIfAbsent(id, key -> new SummaryState());
+                state.pending.addAll(evicted);
+                trimPending(state);
+            }
+        }
+        if (!evicted.isEmpty()) {
+            logger.debug("记忆ID {} 超出token预算，移出 {} 条早期消息", id, evicted.size());
+            summarizePending();
+        }
+    }
+
+    /**
+     * @return 消息列表是否有变化
+     */
+    private boolean append(List<ChatMessage> messages, ChatMessage message) {
+        if (message instanceof SystemMessage systemMessage) {
+            int index = systemMessageIndex(messages);
+            String summary = index < 0 ? null : summaryOf((SystemMessage) messages.get(index));
+            SystemMessage composed = compose(systemMessage.text(), summary);
+            if (index >= 0) {
+                if (messages.get(index).equals(composed)) {
+                    return false;
+                }
+                messages.remove(index);
+            }
+            messages.add(0, composed);
+        } else {
+            messages.add(message);
+            if (compactTurns && TurnCompactor.isTurnComplete(message)) {
+                TurnCompactor.compactLastTurn(messages);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public List<ChatMessage> messages() {
+        return new ArrayList<>(store.getMessages(id));
+    }
+
+    @Override
+    public void clear() {
+        synchronized (lock) {
+            SummaryState state = SUMMARY_STATES.get(id);
+            if (state != null) {
+                // 清空前开始的摘要任务结果作废
+                state.pending.clear();
+                state.generation++;
+                if (!state.summarizing) {
+                    SUMMARY_STATES.remove(id, state);
+                }
+            }
+            store.deleteMessages(id);
+        }
+    }
+
+    /**
+     * 整轮移出最早的对话直到不超出预算
+     * 一轮从一条用户消息开始，到下一条用户消息之前结束
+     *
+     * @return 被移出的消息
+     */
+    private List<ChatMessage> enforceBudget(List<ChatMessage> messages) {
+        List<ChatMessage> evicted = new ArrayList<>();
+        int tokens = TokenEstimator.estimate(messages);
+        while (tokens > maxTokens) {
+            int start = messages.get(0) instanceof SystemMessage ? 1 : 0;
+            int end = start + 1;
+            while (end < messages.size() && !(messages.get(end) instanceof UserMessage)) {
+                end++;
+            }
+            if (end >= messages.size()) {
+                // 只剩当前这一轮，不再移出
+                break;
+            }
+            List<ChatMessage> turn = messages.subList(start, end);
+            tokens -= TokenEstimator.estimate(turn);
+            evicted.addAll(turn);
+            turn.clear();
+        }
+        return evicted;
+    }
+
+    /**
+     * 把待处理的早期对话合并进摘要，同一时间每个会话只有一个摘要任务
+     * 摘要失败或线程池已满时，这批消息放回待摘要队列的开头，下次有对话被移出时一起重试
+     */
+    private void summarizePending() {
+        SummaryState state;
+        List<ChatMessage> batch;
+        String previousSummary;
+        long generation;
+        synchronized (lock) {
+            state = SUMMARY_STATES.get(id);
+            if (state == null || state.summarizing || state.pending.isEmpty()) {
+                return;
+            }
+            state.summarizing = true;
+            batch = new ArrayList<>(state.pending);
+            state.pending.clear();
+            generation = state.generation;
+            List<ChatMessage> messages = store.getMessages(id);
+            int index = systemMessageIndex(messages);
+            previousSummary = index < 0 ? null : summaryOf((SystemMessage) messages.get(index));
+        }
+
+        summarizer.summarize(previousSummary, batch).whenComplete((summary, error) -> {
+            boolean succeeded = error == null && summary != null && !summary.isBlank();
+            synchronized (lock) {
+                state.summarizing = false;
+                // 摘要期间会话被清空时结果作废，也不再放回
+                if (state.generation == generation) {
+                    if (succeeded) {
+                        applySummary(summary);
+                    } else {
+                        state.pending.addAll(0, batch);
+                        trimPending(state);
+                        logger.warn("记忆ID {} 的对话摘要未完成，{} 条消息等待下次重试", id, batch.size());
+                    }
+                }
+                if (state.pending.isEmpty()) {
+                    SUMMARY_STATES.remove(id, state);
+                }
+            }
+            if (succeeded) {
+                // 摘要期间又有对话被移出时继续合并
+                summarizePending();
+            }
+        });
+    }
+
+    private void trimPending(SummaryState state) {
+        int overflow = state.pending.size() - MAX_PENDING_MESSAGES;
+        if (overflow > 0) {
+            state.pending.subList(0, overflow).clear();
+            logger.warn("记忆ID {} 待摘要的消息过多，丢弃最早的 {} 条", id, overflow);
+        }
+    }
+
+    private void applySummary(String summary) {
+        List<ChatMessage> messages = new ArrayList<>(store.getMessages(id));
+        if (messages.isEmpty()) {
+            // 会话已被清空
+            return;
+        }
+        int index = systemMessageIndex(messages);
+        String base = "";
+        if (index >= 0) {
+            base = baseOf((SystemMessage) messages.remove(index));
+        }
+        messages.add(0, compose(base, summary));
+        store.updateMessages(id, messages);
+    }
+
+    private static int systemMessageIndex(List<ChatMessage> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i) instanceof SystemMessage) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static SystemMessage compose(String base, String summary) {
+        if (summary == null || summary.isBlank()) {
+            return SystemMessage.from(base);
+        }
+        return SystemMessage.from(base + SUMMARY_MARKER + summary);
+    }
+
+    static String baseOf(SystemMessage message) {
+        int index = message.text().indexOf(SUMMARY_MARKER);
+        return index < 0 ? message.text() : message.text().substring(0, index);
+    }
+
+    static String summaryOf(SystemMessage message) {
+        int index = message.text().indexOf(SUMMARY_MARKER);
+        return index < 0 ? null : message.text().substring(index + SUMMARY_MARKER.length());
+    }
+
+    /**
+     * 一个会话的摘要状态，在该会话的分段锁内读写
+     */
+    private static final class SummaryState {
+        // 等待合并进摘要的消息
+        private final List<ChatMessage> pending = new ArrayList<>();
+        // 是否有摘要任务在进行
+        private boolean summarizing;
+        // 会话被清空的次数，与摘要任务开始时不同则丢弃结果
+        private long generation;
+    }
+}
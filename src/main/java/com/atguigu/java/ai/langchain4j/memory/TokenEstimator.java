@@ -0,0 +1,86 @@
+package com.atguigu.java.ai.langchain4j.memory;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.Content;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.TextContent;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import java.util.List;
+
+/**
+ * 本地token数估算
+ * 不依赖具体模型的分词器：中日韩字符按每字一个token计，其余字符按每四个字符一个token计，
+ * 每条消息另加固定开销。结果偏保守，只用于控制提示词规模，不用于计费
+ */
+public final class TokenEstimator {
+
+    // 每条消息的角色、分隔符等固定开销
+    private static final int MESSAGE_OVERHEAD = 4;
+    // 图片等非文本内容按固定值估算
+    private static final int NON_TEXT_CONTENT = 256;
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            if (isCjk(codePoint)) {
+                cjk++;
+            } else {
+                other++;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    public static int estimate(ChatMessage message) {
+        int tokens = MESSAGE_OVERHEAD;
+        if (message instanceof SystemMessage systemMessage) {
+            tokens += estimate(systemMessage.text());
+        } else if (message instanceof UserMessage userMessage) {
+            for (Content content : userMessage.contents()) {
+                tokens += content instanceof TextContent textContent
+                        ? estimate(textContent.text()) : NON_TEXT_CONTENT;
+            }
+        } else if (message instanceof AiMessage aiMessage) {
+            tokens += estimate(aiMessage.text());
+            if (aiMessage.hasToolExecutionRequests()) {
+                for (ToolExecutionRequest request : aiMessage.toolExecutionRequests()) {
+                    tokens += MESSAGE_OVERHEAD + estimate(request.name()) + estimate(request.arguments());
+                }
+            }
+        } else if (message instanceof ToolExecutionResultMessage resultMessage) {
+            tokens += estimate(resultMessage.toolName()) + estimate(resultMessage.text());
+        }
+        return tokens;
+    }
+
+    public static int estimate(List<ChatMessage> messages) {
+        int tokens = 0;
+        for (ChatMessage message : messages) {
+            tokens += estimate(message);
+        }
+        return tokens;
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL
+                || codePoint >= 0x3000 && codePoint <= 0x303F   // 中文标点
+                || codePoint >= 0xFF00 && codePoint <= 0xFFEF;  // 全角字符
+    }
+}
@@ -0,0 +1,134 @@
+package com.atguigu.java.ai.langchain4j.memory;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 对话轮次压缩
+ * 一轮对话结束（收到不含工具调用的AI回复）后：用户消息去掉检索增强时拼接的参考资料，只保留原文；
+ * 中间的工具调用请求与结果移除，改为一行调用结果附在最终回复末尾。
+ * 结果行只记工具名和结果，不含调用参数（如姓名、身份证号），结果中的身份证号、手机号打码后保存。
+ * 本轮进行中的消息不做处理，保证大模型在本轮内看到完整的参考资料与工具结果
+ */
+public final class TurnCompactor {
+
+    /**
+     * 检索增强时拼接在用户原文之后的分隔标记，提示词模板见 XiaozhiAgentConfig
+     */
+    public static final String AUGMENTATION_MARKER = "\n\n【参考资料】\n";
+
+    /**
+     * 最终回复中工具调用结果部分的分隔标记
+     */
+    public static final String TOOL_OUTCOME_MARKER = "\n\n【工具调用结果】";
+
+    // 工具结果写入结果行时的最大长度
+    private static final int MAX_OUTCOME_CHARS = 200;
+
+    // 工具结果中的身份证号（18位或15位）与手机号，前后不能紧挨其他数字
+    private static final Pattern PERSONAL_NUMBER = Pattern.compile(
+            "(?<![0-9])(?:\\d{17}[0-9Xx]|\\d{15}|1[3-9]\\d{9})(?![0-9])");
+
+    private TurnCompactor() {
+    }
+
+    /**
+     * 判断消息是否结束了一轮对话
+     */
+    public static boolean isTurnComplete(ChatMessage message) {
+        return message instanceof AiMessage aiMessage && !aiMessage.hasToolExecutionRequests();
+    }
+
+    /**
+     * 压缩列表中最后一轮对话，直接修改传入的列表
+     *
+     * @param messages 以最终AI回复结尾的消息列表
+     */
+    public static void compactLastTurn(List<ChatMessage> messages) {
+        int last = messages.size() - 1;
+        int userIndex = last;
+        while (userIndex >= 0 && !(messages.get(userIndex) instanceof UserMessage)) {
+            userIndex--;
+        }
+        if (userIndex < 0 || !(messages.get(last) instanceof AiMessage answer)) {
+            return;
+        }
+
+        UserMessage userMessage = (UserMessage) messages.get(userIndex);
+        if (userMessage.hasSingleText()) {
+            String text = userMessage.singleText();
+            int index = text.indexOf(AUGMENTATION_MARKER);
+            if (index >= 0) {
+                String original = text.substring(0, index);
+                messages.set(userIndex, userMessage.name() == null
+                        ? UserMessage.from(original) : UserMessage.from(userMessage.name(), original));
+            }
+        }
+
+        List<ChatMessage> exchange = messages.subList(userIndex + 1, last);
+        if (exchange.isEmpty()) {
+            return;
+        }
+        String outcome = describe(exchange);
+        exchange.clear();
+        if (!outcome.isEmpty() && answer.text() != null) {
+            messages.set(messages.size() - 1, AiMessage.from(answer.text() + TOOL_OUTCOME_MARKER + outcome));
+        }
+    }
+
+    /**
+     * 去掉回复中的工具调用结果部分，用于向用户展示
+     */
+    public static String displayText(String text) {
+        if (text == null) {
+            return null;
+        }
+        int index = text.indexOf(TOOL_OUTCOME_MARKER);
+        return index < 0 ? text : text.substring(0, index);
+    }
+
+    /**
+     * 每个工具调用生成一行"工具名 → 结果"
+     */
+    private static String describe(List<ChatMessage> exchange) {
+        StringBuilder outcome = new StringBuilder();
+        for (ChatMessage message : exchange) {
+            if (message instanceof ToolExecutionResultMessage result) {
+                outcome.append('\n').append(result.toolName())
+                        .append(" → ").append(truncate(mask(result.text())));
+            }
+        }
+        return outcome.toString();
+    }
+
+    /**
+     * 身份证号、手机号只保留前3位和后4位
+     */
+    static String mask(String text) {
+        if (text == null) {
+            return null;
+        }
+        Matcher matcher = PERSONAL_NUMBER.matcher(text);
+        StringBuilder masked = new StringBuilder();
+        while (matcher.find()) {
+            String number = matcher.group();
+            matcher.appendReplacement(masked, number.substring(0, 3)
+                    + "*".repeat(number.length() - 7) + number.substring(number.length() - 4));
+        }
+        matcher.appendTail(masked);
+        return masked.toString();
+    }
+
+    private static String truncate(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.length() <= MAX_OUTCOME_CHARS ? text : text.substring(0, MAX_OUTCOME_CHARS) + "…";
+    }
+}
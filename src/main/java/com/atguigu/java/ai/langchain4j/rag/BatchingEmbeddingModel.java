@@ -0,0 +1,163 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 合并请求的向量模型
+ * 各会话并发发起的单条向量化请求先进入队列，在很短的等待窗口内攒成一批后一次调用远程模型；
+ * 多条的批量请求（如知识库导入）按批次上限切分后直接调用，不再排队
+ */
+public class BatchingEmbeddingModel implements EmbeddingModel, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchingEmbeddingModel.class);
+
+    private final EmbeddingModel delegate;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService callers;
+    private final Thread dispatcher;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private record Request(TextSegment segment, CompletableFuture<Embedding> future) {
+    }
+
+    /**
+     * @param delegate      实际的向量模型
+     * @param maxBatchSize  单次调用的最大条数
+     * @param maxWaitMillis 攒批的最长等待时间
+     * @param concurrency   同时进行的批量调用数
+     */
+    public BatchingEmbeddingModel(EmbeddingModel delegate, int maxBatchSize, long maxWaitMillis, int concurrency) {
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        AtomicInteger index = new AtomicInteger();
+        this.callers = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "embedding-batch-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new Thread(this::dispatch, "embedding-batcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        if (segments.size() != 1) {
+            List<Embedding> embeddings = new ArrayList<>(segments.size());
+            for (int from = 0; from < segments.size(); from += maxBatchSize) {
+                List<TextSegment> batch = segments.subList(from, Math.min(from + maxBatchSize, segments.size()));
+                embeddings.addAll(delegate.embedAll(batch).content());
+                batches.increment();
+            }
+            requests.add(segments.size());
+            return Response.from(embeddings);
+        }
+
+        CompletableFuture<Embedding> future = new CompletableFuture<>();
+        queue.add(new Request(segments.get(0), future));
+        try {
+            return Response.from(List.of(future.join()));
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    private void dispatch() {
+        try {
+            while (true) {
+                List<Request> batch = new ArrayList<>(maxBatchSize);
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                callers.execute(() -> call(batch));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void call(List<Request> batch) {
+        requests.add(batch.size());
+        batches.increment();
+        try {
+            List<TextSegment> segments = new ArrayList<>(batch.size());
+            for (Request request : batch) {
+                segments.add(request.segment());
+            }
+            List<Embedding> embeddings = delegate.embedAll(segments).content();
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).future().complete(embeddings.get(i));
+            }
+        } catch (RuntimeException e) {
+            failures.increment();
+            logger.error("批量向量化失败，共 {} 条", batch.size(), e);
+            for (Request request : batch) {
+                request.future().completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 获取合并统计信息
+     *
+     * @return 请求条数、实际调用次数、平均每次条数及失败次数
+     */
+    public Map<String, Object> getStats() {
+        long requestCount = requests.sum();
+        long batchCount = batches.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", requestCount);
+        stats.put("batches", batchCount);
+        stats.put("avgBatchSize", batchCount == 0 ? 0.0 : (double) requestCount / batchCount);
+        stats.put("failures", failures.sum());
+        stats.put("queued", queue.size());
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        dispatcher.interrupt();
+        callers.shutdownNow();
+        for (Request request; (request = queue.poll()) != null; ) {
+            request.future().completeExceptionally(new IllegalStateException("向量模型已关闭"));
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 带缓存的向量模型
+ * 以"命名空间 + 规范化文本"的摘要为键缓存向量：内存层为按条数限制的 LRU，磁盘层可选，重启后仍然有效。
+ * 命名空间用于区分不同的向量模型，切换模型后旧向量不会被误用。
+ * 同一文本的并发未命中只调用一次向量模型，其余调用方等待并共享结果（如Pinecone与本地知识库同时检索同一问题）
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingEmbeddingModel.class);
+    private static final String FILE_SUFFIX = ".vec";
+
+    private final EmbeddingModel delegate;
+    private final String namespace;
+    private final int maxEntries;
+    private final Path diskPath;
+    private final LinkedHashMap<String, float[]> memory = new LinkedHashMap<>(1024, 0.75f, true);
+    // 正在计算的向量，键同缓存键
+    private final ConcurrentHashMap<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param delegate   实际的向量模型
+     * @param namespace  缓存命名空间，一般为模型名称
+     * @param maxEntries 内存层最多缓存的向量数
+     * @param diskPath   磁盘层目录，为空表示不启用
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String namespace, int maxEntries, Path diskPath) {
+        this.delegate = delegate;
+        this.namespace = namespace;
+        this.maxEntries = maxEntries;
+        this.diskPath = diskPath;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+        List<Embedding> embeddings = new ArrayList<>(segments.size());
+        List<String> missKeys = new ArrayList<>();
+        List<TextSegment> missSegments = new ArrayList<>();
+        List<Integer> missIndexes = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            String key = key(segments.get(i).text());
+            float[] vector = get(key);
+            embeddings.add(vector != null ? Embedding.from(vector) : null);
+            if (vector == null) {
+                missKeys.add(key);
+                missSegments.add(segments.get(i));
+                missIndexes.add(i);
+            }
+        }
+        if (missSegments.isEmpty()) {
+            return Response.from(embeddings);
+        }
+
+        // 认领未命中的键：已有其他调用方在计算的等待其结果，其余由本次调用计算
+        List<CompletableFuture<float[]>> owned = new ArrayList<>();
+        List<String> ownedKeys = new ArrayList<>();
+        List<TextSegment> ownedSegments = new ArrayList<>();
+        List<Integer> ownedIndexes = new ArrayList<>();
+        List<CompletableFuture<float[]>> waiting = new ArrayList<>();
+        List<Integer> waitingIndexes = new ArrayList<>();
+        for (int i = 0; i < missKeys.size(); i++) {
+            String key = missKeys.get(i);
+            CompletableFuture<float[]> future = new CompletableFuture<>();
+            CompletableFuture<float[]> existing = inFlight.putIfAbsent(key, future);
+            if (existing != null) {
+                coalesced.increment();
+                waiting.add(existing);
+                waitingIndexes.add(missIndexes.get(i));
+                continue;
+            }
+            float[] vector;
+            synchronized (memory) {
+                // 认领前另一调用方可能刚好算完
+                vector = memory.get(key);
+            }
+            if (vector != null) {
+                inFlight.remove(key, future);
+                future.complete(vector);
+                embeddings.set(missIndexes.get(i), Embedding.from(vector));
+                continue;
+            }
+            owned.add(future);
+            ownedKeys.add(key);
+            ownedSegments.add(missSegments.get(i));
+            ownedIndexes.add(missIndexes.get(i));
+        }
+
+        if (!ownedSegments.isEmpty()) {
+            try {
+                List<Embedding> computed = delegate.embedAll(ownedSegments).content();
+                for (int i = 0; i < ownedSegments.size(); i++) {
+                    Embedding embedding = computed.get(i);
+                    embeddings.set(ownedIndexes.get(i), embedding);
+                    put(ownedKeys.get(i), embedding.vector());
+                    owned.get(i).complete(embedding.vector());
+                }
+            } catch (RuntimeException e) {
+                for (CompletableFuture<float[]> future : owned) {
+                    future.completeExceptionally(e);
+                }
+                throw e;
+            } finally {
+                for (int i = 0; i < ownedKeys.size(); i++) {
+                    CompletableFuture<float[]> future = owned.get(i);
+                    inFlight.remove(ownedKeys.get(i), future);
+                    if (!future.isDone()) {
+                        // 向量模型返回的条数不足或抛出 Error，避免等待方一直阻塞
+                        future.completeExceptionally(new IllegalStateException("向量计算未完成"));
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < waiting.size(); i++) {
+            try {
+                embeddings.set(waitingIndexes.get(i), Embedding.from(waiting.get(i).join()));
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        return Response.from(embeddings);
+    }
+
+    @Override
+    public int dimension() {
+        return delegate.dimension();
+    }
+
+    /**
+     * 计算缓存键，文本去除首尾空白并合并连续空白
+     */
+    private String key(String text) {
+        String normalized = text.trim().replaceAll("\\s+", " ");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((namespace + '\u0000' + normalized).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    private float[] get(String key) {
+        float[] vector;
+        synchronized (memory) {
+            vector = memory.get(key);
+        }
+        if (vector != null) {
+            memoryHits.increment();
+            return vector;
+        }
+        vector = readFromDisk(key);
+        if (vector != null) {
+            diskHits.increment();
+            putInMemory(key, vector);
+            return vector;
+        }
+        misses.increment();
+        return null;
+    }
+
+    private void put(String key, float[] vector) {
+        putInMemory(key, vector);
+        writeToDisk(key, vector);
+    }
+
+    private void putInMemory(String key, float[] vector) {
+        synchronized (memory) {
+            memory.put(key, vector);
+            if (memory.size() > maxEntries) {
+                memory.remove(memory.keySet().iterator().next());
+            }
+        }
+    }
+
+    private float[] readFromDisk(String key) {
+        if (diskPath == null) {
+            return null;
+        }
+        Path file = diskPath.resolve(key + FILE_SUFFIX);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            float[] vector = new float[mapped.remaining() / Float.BYTES];
+            mapped.asFloatBuffer().get(vector);
+            return vector;
+        } catch (IOException e) {
+            logger.warn("读取向量磁盘缓存失败: {}", file, e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, float[] vector) {
+        if (diskPath == null) {
+            return;
+        }
+        Path file = diskPath.resolve(key + FILE_SUFFIX);
+        if (Files.exists(file)) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
+            buffer.asFloatBuffer().put(vector);
+            // 先写临时文件再原子替换，避免读到半个文件
+            Path tmp = Files.createTempFile(diskPath, key, ".tmp");
+            Files.write(tmp, buffer.array());
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("写入向量磁盘缓存失败: {}", file, e);
+        }
+    }
+
+    /**
+     * 获取缓存统计信息
+     *
+     * @return 内存/磁盘命中、未命中、与并发请求合并的未命中、命中率及内存条目数
+     */
+    public Map<String, Object> getStats() {
+        long memoryHit = memoryHits.sum();
+        long diskHit = diskHits.sum();
+        long miss = misses.sum();
+        long total = memoryHit + diskHit + miss;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("memoryHits", memoryHit);
+        stats.put("diskHits", diskHit);
+        stats.put("misses", miss);
+        stats.put("coalesced", coalesced.sum());
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) (memoryHit + diskHit) / total);
+        synchronized (memory) {
+            stats.put("entries", memory.size());
+        }
+        stats.put("diskEnabled", diskPath != null);
+        return stats;
+    }
+}
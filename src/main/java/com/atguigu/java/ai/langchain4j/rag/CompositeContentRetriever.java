@@ -0,0 +1,248 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 多来源组合检索器
+ * 各来源并行检索，每个来源有自己的截止时间（从请求开始计算）：
+ * 首选来源（第一个）在截止时间内返回非空结果即立即返回，同时带上其他已完成来源的结果；
+ * 首选来源超时、失败或无结果时降级，等待其余来源直到各自的截止时间。结果按来源顺序合并并按文本去重。
+ * 每个来源使用独立的有界线程池，超时的检索会被中断；某一来源变慢占满线程和队列时直接拒绝该来源的新请求，
+ * 不会让其他来源的检索排队等待
+ */
+public class CompositeContentRetriever implements ContentRetriever, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompositeContentRetriever.class);
+
+    // 记录最近多少次请求的耗时用于计算分位数
+    private static final int LATENCY_WINDOW = 1024;
+
+    /**
+     * 检索来源
+     *
+     * @param name           来源名称，用于统计
+     * @param retriever      检索器
+     * @param deadlineMillis 截止时间（毫秒）
+     * @param threads        该来源的检索线程数
+     * @param queueCapacity  线程都在忙时最多排队的请求数，超出时拒绝
+     */
+    public record Source(String name, ContentRetriever retriever, long deadlineMillis, int threads, int queueCapacity) {
+    }
+
+    private static class SourceStats {
+        final LongAdder calls = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+    }
+
+    private final List<Source> sources;
+    private final List<ThreadPoolExecutor> executors;
+    private final int maxResults;
+    private final Map<String, SourceStats> sourceStats = new LinkedHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder degraded = new LongAdder();
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private long latencyCount;
+
+    /**
+     * @param sources    检索来源，第一个为首选来源
+     * @param maxResults 合并后最多返回的条数
+     */
+    public CompositeContentRetriever(List<Source> sources, int maxResults) {
+        this.sources = List.copyOf(sources);
+        this.maxResults = maxResults;
+        List<ThreadPoolExecutor> pools = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            sourceStats.put(source.name(), new SourceStats());
+            pools.add(newExecutor(source));
+        }
+        this.executors = List.copyOf(pools);
+    }
+
+    private static ThreadPoolExecutor newExecutor(Source source) {
+        AtomicInteger index = new AtomicInteger();
+        return new ThreadPoolExecutor(source.threads(), source.threads(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(source.queueCapacity(), 1)), r -> {
+                    Thread thread = new Thread(r, "retrieval-" + source.name() + "-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        requests.increment();
+        long start = System.nanoTime();
+        List<Future<List<Content>>> futures = new ArrayList<>(sources.size());
+        for (int i = 0; i < sources.size(); i++) {
+            futures.add(submit(i, query));
+        }
+
+        List<List<Content>> results = new ArrayList<>(sources.size());
+        List<Content> primary = await(0, futures.get(0), start);
+        results.add(primary);
+        boolean sufficient = !primary.isEmpty();
+        if (!sufficient) {
+            degraded.increment();
+        }
+        for (int i = 1; i < sources.size(); i++) {
+            Future<List<Content>> future = futures.get(i);
+            if (sufficient) {
+                // 首选来源已有结果，只取已经完成的其他来源，未完成的中断
+                results.add(future.isDone() ? await(i, future, start) : List.of());
+                future.cancel(true);
+            } else {
+                results.add(await(i, future, start));
+            }
+        }
+
+        recordLatency(System.nanoTime() - start);
+        return merge(results);
+    }
+
+    /**
+     * 提交第 index 个来源的检索，线程和队列已满时返回失败的结果
+     */
+    private Future<List<Content>> submit(int index, Query query) {
+        Source source = sources.get(index);
+        try {
+            return executors.get(index).submit(() -> call(source, query));
+        } catch (RejectedExecutionException e) {
+            sourceStats.get(source.name()).rejected.increment();
+            logger.debug("检索来源 {} 繁忙，拒绝本次检索", source.name());
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private List<Content> call(Source source, Query query) {
+        SourceStats stats = sourceStats.get(source.name());
+        stats.calls.increment();
+        long start = System.nanoTime();
+        try {
+            return source.retriever().retrieve(query);
+        } finally {
+            stats.nanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 等待第 index 个来源直到其截止时间，超时或失败时返回空结果
+     */
+    private List<Content> await(int index, Future<List<Content>> future, long start) {
+        Source source = sources.get(index);
+        SourceStats stats = sourceStats.get(source.name());
+        long remaining = TimeUnit.MILLISECONDS.toNanos(source.deadlineMillis()) - (System.nanoTime() - start);
+        try {
+            return future.get(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            stats.timeouts.increment();
+            future.cancel(true);
+            logger.debug("检索来源 {} 超过截止时间 {} ms", source.name(), source.deadlineMillis());
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof RejectedExecutionException)) {
+                stats.failures.increment();
+                logger.warn("检索来源 {} 检索失败", source.name(), e.getCause());
+            }
+        } catch (CancellationException e) {
+            // 已被取消，按无结果处理
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+        }
+        return List.of();
+    }
+
+    private List<Content> merge(List<List<Content>> results) {
+        Map<String, Content> merged = new LinkedHashMap<>();
+        for (List<Content> contents : results) {
+            for (Content content : contents) {
+                merged.putIfAbsent(content.textSegment().text(), content);
+            }
+        }
+        List<Content> list = new ArrayList<>(merged.values());
+        return list.size() > maxResults ? new ArrayList<>(list.subList(0, maxResults)) : list;
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[(int) (latencyCount++ % LATENCY_WINDOW)] = nanos;
+        }
+    }
+
+    /**
+     * 获取组合检索统计信息
+     *
+     * @return 请求数、降级次数、最近请求的耗时分位数及各来源的调用、超时、失败、拒绝次数、平均耗时与当前排队数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", requests.sum());
+        stats.put("degraded", degraded.sum());
+        long[] window;
+        synchronized (latencies) {
+            window = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_WINDOW));
+        }
+        Arrays.sort(window);
+        stats.put("p50Millis", percentile(window, 0.50));
+        stats.put("p99Millis", percentile(window, 0.99));
+
+        Map<String, Object> perSource = new LinkedHashMap<>();
+        for (int i = 0; i < sources.size(); i++) {
+            String name = sources.get(i).name();
+            SourceStats s = sourceStats.get(name);
+            ThreadPoolExecutor executor = executors.get(i);
+            long calls = s.calls.sum();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("calls", calls);
+            item.put("timeouts", s.timeouts.sum());
+            item.put("failures", s.failures.sum());
+            item.put("rejected", s.rejected.sum());
+            item.put("avgMillis", calls == 0 ? 0 : s.nanos.sum() / 1_000_000 / calls);
+            item.put("active", executor.getActiveCount());
+            item.put("queued", executor.getQueue().size());
+            perSource.put(name, item);
+        }
+        stats.put("sources", perSource);
+        return stats;
+    }
+
+    /**
+     * 关闭各来源的线程池，中断仍在进行的检索
+     */
+    @Override
+    public void close() {
+        executors.forEach(ThreadPoolExecutor::shutdownNow);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(index, 0)]);
+    }
+}
@@ -0,0 +1,803 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 基于HNSW图的进程内向量库
+ * 向量归一化后保存在堆外内存中，可选按 int8 量化（每个向量按自身最大分量的绝对值确定缩放系数，
+ * 每维一个字节，查询时以浮点查询向量与量化向量做点积）；
+ * 邻接表保存在堆内，邻居按启发式选择（只保留比已选邻居更靠近当前节点的候选，使邻居分布在不同方向，
+ * 见 Malkov 论文算法 4）。删除采用标记方式，被删除的节点仍参与图遍历但不会出现在结果中，
+ * 查询时按已删除的比例扩大候选集；删除比例较高时由调用方通过 {@link #compact()} 重建索引回收空间。
+ * 参数 m 控制每层邻居数，efConstruction 控制建图质量，efSearch 控制查询时的召回率与速度
+ */
+public class HnswEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    private static final int MAGIC = 0x484E5357;
+    // 2：量化向量带有各自的缩放系数
+    private static final int FORMAT_VERSION = 2;
+    // 单次测试的最大查询次数与返回条数
+    private static final int MAX_BENCHMARK_QUERIES = 2000;
+    private static final int MAX_BENCHMARK_K = 100;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final int m;
+    private final int efConstruction;
+    private final boolean quantized;
+    private final double levelFactor;
+    private volatile int efSearch;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int dimension = -1;
+    private int bytesPerVector;
+    private ByteBuffer vectors;
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private int[][][] links = new int[64][][];
+    private final List<String> ids = new ArrayList<>();
+    private final List<TextSegment> segments = new ArrayList<>();
+    private final Map<String, Integer> nodeById = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    // 已删除的节点数，与 deleted 同步维护
+    private int deletedCount;
+
+    private record Candidate(int node, float similarity) {
+    }
+
+    /**
+     * @param m              每层的邻居数（第 0 层为其两倍）
+     * @param efConstruction 建图时的候选集大小
+     * @param efSearch       查询时的候选集大小，越大召回率越高、速度越慢
+     * @param quantized      是否以 int8 保存向量
+     */
+    public HnswEmbeddingStore(int m, int efConstruction, int efSearch, boolean quantized) {
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.quantized = quantized;
+        this.levelFactor = 1 / Math.log(m);
+    }
+
+    public void setEfSearch(int efSearch) {
+        this.efSearch = efSearch;
+    }
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        addAll(List.of(id), List.of(embedding), null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = UUID.randomUUID().toString();
+        addAll(List.of(id), List.of(embedding), List.of(textSegment));
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        List<String> newIds = randomIds(embeddings.size());
+        addAll(newIds, embeddings, null);
+        return newIds;
+    }
+
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+        List<String> newIds = randomIds(embeddings.size());
+        addAll(newIds, embeddings, textSegments);
+        return newIds;
+    }
+
+    /**
+     * 按给定ID批量添加，ID已存在时替换原向量
+     */
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> textSegments) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                Integer previous = nodeById.remove(ids.get(i));
+                if (previous != null) {
+                    markDeleted(previous);
+                }
+                insert(ids.get(i), embeddings.get(i).vector(), textSegments != null ? textSegments.get(i) : null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                Integer node = nodeById.remove(id);
+                if (node != null) {
+                    markDeleted(node);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            nodeById.clear();
+            deleted.set(0, size);
+            deletedCount = size;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = normalize(request.queryEmbedding().vector());
+        Filter filter = request.filter();
+        int k = request.maxResults();
+
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return new EmbeddingSearchResult<>(List.of());
+            }
+            // 有过滤条件时加倍，有删除时按存活比例放大候选集，避免过滤后不足 k 条
+            int ef = Math.max(efSearch, k);
+            if (filter != null) {
+                ef *= 2;
+            }
+            if (deletedCount > 0) {
+                int live = Math.max(size - deletedCount, 1);
+                ef = (int) Math.min(size, (long) Math.ceil((double) ef * size / live));
+            }
+            List<Candidate> candidates = searchGraph(query, ef);
+            return toResult(candidates, k, request.minScore(), filter);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 精确检索（遍历全部向量），用于评估召回率
+     */
+    public EmbeddingSearchResult<TextSegment> searchExact(EmbeddingSearchRequest request) {
+        float[] query = normalize(request.queryEmbedding().vector());
+        lock.readLock().lock();
+        try {
+            List<Candidate> candidates = new ArrayList<>(size);
+            for (int node = 0; node < size; node++) {
+                candidates.add(new Candidate(node, similarity(query, node)));
+            }
+            candidates.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+            return toResult(candidates, request.maxResults(), request.minScore(), request.filter());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodeById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 已删除（仍占用图节点）的节点占全部节点的比例
+     */
+    public double deletedRatio() {
+        lock.readLock().lock();
+        try {
+            return size == 0 ? 0.0 : (double) deletedCount / size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 只用未删除的节点重建索引，回收已删除节点占用的向量空间和图节点
+     *
+     * @return 参数相同、只含未删除节点的新索引，当前索引不变
+     */
+    public HnswEmbeddingStore compact() {
+        HnswEmbeddingStore compacted = new HnswEmbeddingStore(m, efConstruction, efSearch, quantized);
+        lock.readLock().lock();
+        try {
+            for (int node = 0; node < size; node++) {
+                if (!deleted.get(node)) {
+                    compacted.insert(ids.get(node), vectorOf(node), segments.get(node));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return compacted;
+    }
+
+    private void markDeleted(int node) {
+        if (!deleted.get(node)) {
+            deleted.set(node);
+            deletedCount++;
+        }
+    }
+
+    private EmbeddingSearchResult<TextSegment> toResult(List<Candidate> candidates, int k, double minScore, Filter filter) {
+        List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(k);
+        for (Candidate candidate : candidates) {
+            if (matches.size() >= k) {
+                break;
+            }
+            int node = candidate.node();
+            if (deleted.get(node)) {
+                continue;
+            }
+            TextSegment segment = segments.get(node);
+            if (filter != null && (segment == null || !filter.test(segment.metadata()))) {
+                continue;
+            }
+            double score = RelevanceScore.fromCosineSimilarity(candidate.similarity());
+            if (score < minScore) {
+                continue;
+            }
+            matches.add(new EmbeddingMatch<>(score, ids.get(node), Embedding.from(vectorOf(node)), segment));
+        }
+        return new EmbeddingSearchResult<>(matches);
+    }
+
+    private void insert(String id, float[] raw, TextSegment segment) {
+        float[] vector = normalize(raw);
+        if (dimension < 0) {
+            dimension = vector.length;
+            bytesPerVector = bytesPerVector(dimension, quantized);
+            vectors = ByteBuffer.allocateDirect(bytesPerVector * 1024);
+        } else if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不一致: " + vector.length + "，应为 " + dimension);
+        }
+
+        int node = size;
+        ensureCapacity(node + 1);
+        writeVector(node, vector);
+        ids.add(id);
+        segments.add(segment);
+        nodeById.put(id, node);
+        size++;
+
+        int level = randomLevel();
+        links[node] = new int[level + 1][];
+        for (int lc = 0; lc <= level; lc++) {
+            links[node][lc] = new int[0];
+        }
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int ep = entryPoint;
+        for (int lc = maxLevel; lc > level; lc--) {
+            ep = greedy(vector, ep, lc);
+        }
+        List<Candidate> entryPoints = List.of(new Candidate(ep, similarity(vector, ep)));
+        for (int lc = Math.min(level, maxLevel); lc >= 0; lc--) {
+            List<Candidate> nearest = searchLayer(vector, entryPoints, efConstruction, lc);
+            int maxConnections = lc == 0 ? m * 2 : m;
+            int[] selected = selectNeighbors(nearest, maxConnections);
+            links[node][lc] = selected;
+            for (int neighbor : selected) {
+                connect(neighbor, node, vector, lc, maxConnections);
+            }
+            entryPoints = nearest;
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * 把 node 加入 neighbor 的邻接表，超出上限时去掉一个邻居：原有邻居之间已按启发式选过，只需检查与 node 有关的组合，
+     * 从最不相似的开始，去掉第一个与更相似的邻居比与 neighbor 更接近的（不满足启发式条件），都满足时去掉最不相似的
+     *
+     * @param vector node 的向量
+     */
+    private void connect(int neighbor, int node, float[] vector, int level, int maxConnections) {
+        int[] current = links[neighbor][level];
+        if (current.length < maxConnections) {
+            int[] extended = Arrays.copyOf(current, current.length + 1);
+            extended[current.length] = node;
+            links[neighbor][level] = extended;
+            return;
+        }
+        float[] base = vectorOf(neighbor);
+        List<Candidate> sorted = new ArrayList<>(current.length + 1);
+        for (int n : current) {
+            sorted.add(new Candidate(n, similarity(base, n)));
+        }
+        Candidate added = new Candidate(node, similarity(base, node));
+        sorted.add(added);
+        sorted.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+
+        int addedIndex = sorted.indexOf(added);
+        float[] toAdded = new float[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            toAdded[i] = i == addedIndex ? 0 : similarity(vector, sorted.get(i).node());
+        }
+        int drop = sorted.size() - 1;
+        for (int i = sorted.size() - 1; i >= 0; i--) {
+            boolean diverse = true;
+            if (i == addedIndex) {
+                for (int j = 0; j < i && diverse; j++) {
+                    diverse = toAdded[j] < added.similarity();
+                }
+            } else if (i > addedIndex) {
+                diverse = toAdded[i] < sorted.get(i).similarity();
+            }
+            if (!diverse) {
+                drop = i;
+                break;
+            }
+        }
+        sorted.remove(drop);
+        int[] kept = new int[sorted.size()];
+        for (int i = 0; i < kept.length; i++) {
+            kept[i] = sorted.get(i).node();
+        }
+        links[neighbor][level] = kept;
+    }
+
+    private List<Candidate> searchGraph(float[] query, int ef) {
+        int ep = entryPoint;
+        for (int lc = maxLevel; lc > 0; lc--) {
+            ep = greedy(query, ep, lc);
+        }
+        List<Candidate> nearest = searchLayer(query, List.of(new Candidate(ep, similarity(query, ep))), ef, 0);
+        nearest.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+        return nearest;
+    }
+
+    private int greedy(float[] query, int ep, int level) {
+        float best = similarity(query, ep);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int neighbor : links[ep][level]) {
+                float s = similarity(query, neighbor);
+                if (s > best) {
+                    best = s;
+                    ep = neighbor;
+                    changed = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    private List<Candidate> searchLayer(float[] query, List<Candidate> entryPoints, int ef, int level) {
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(
+                Comparator.comparingDouble(Candidate::similarity).reversed());
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Comparator.comparingDouble(Candidate::similarity));
+        BitSet visited = new BitSet(size);
+        for (Candidate ep : entryPoints) {
+            visited.set(ep.node());
+            candidates.add(ep);
+            results.add(ep);
+        }
+        while (results.size() > ef) {
+            results.poll();
+        }
+
+        while (!candidates.isEmpty()) {
+            Candidate current = candidates.poll();
+            if (results.size() >= ef && current.similarity() < results.peek().similarity()) {
+                break;
+            }
+            for (int neighbor : links[current.node()][level]) {
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float s = similarity(query, neighbor);
+                if (results.size() < ef || s > results.peek().similarity()) {
+                    Candidate candidate = new Candidate(neighbor, s);
+                    candidates.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * 启发式选择邻居：从最相似的候选开始，只有当候选与当前节点的相似度高于它与每个已选邻居的相似度时才选入，
+     * 避免邻居扎堆在同一方向
+     *
+     * @param candidates 候选节点及其与当前节点的相似度
+     */
+    private int[] selectNeighbors(List<Candidate> candidates, int limit) {
+        List<Candidate> sorted = new ArrayList<>(candidates);
+        sorted.sort(Comparator.comparingDouble(Candidate::similarity).reversed());
+        int[] nodes = new int[Math.min(limit, sorted.size())];
+        int count = 0;
+        for (Candidate candidate : sorted) {
+            if (count == nodes.length) {
+                break;
+            }
+            float[] vector = vectorOf(candidate.node());
+            boolean diverse = true;
+            for (int i = 0; i < count && diverse; i++) {
+                diverse = similarity(vector, nodes[i]) < candidate.similarity();
+            }
+            if (diverse) {
+                nodes[count++] = candidate.node();
+            }
+        }
+        return count == nodes.length ? nodes : Arrays.copyOf(nodes, count);
+    }
+
+    private int randomLevel() {
+        double r = ThreadLocalRandom.current().nextDouble();
+        return (int) Math.floor(-Math.log(1 - r) * levelFactor);
+    }
+
+    /**
+     * 量化时每个向量以一个浮点缩放系数开头，其后每维一个字节
+     */
+    private static int bytesPerVector(int dimension, boolean quantized) {
+        return quantized ? Float.BYTES + dimension : dimension * Float.BYTES;
+    }
+
+    private float similarity(float[] query, int node) {
+        int base = node * bytesPerVector;
+        float sum = 0;
+        if (quantized) {
+            int offset = base + Float.BYTES;
+            for (int i = 0; i < dimension; i++) {
+                sum += query[i] * vectors.get(offset + i);
+            }
+            return sum * vectors.getFloat(base);
+        }
+        for (int i = 0; i < dimension; i++) {
+            sum += query[i] * vectors.getFloat(base + i * Float.BYTES);
+        }
+        return sum;
+    }
+
+    private void writeVector(int node, float[] vector) {
+        int base = node * bytesPerVector;
+        if (!quantized) {
+            for (int i = 0; i < dimension; i++) {
+                vectors.putFloat(base + i * Float.BYTES, vector[i]);
+            }
+            return;
+        }
+        // 归一化后的分量通常远小于 1，按最大绝对值缩放才能用满 int8 的取值范围
+        float maxAbs = 0;
+        for (float v : vector) {
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        float scale = maxAbs == 0 ? 0 : maxAbs / 127f;
+        vectors.putFloat(base, scale);
+        for (int i = 0; i < dimension; i++) {
+            vectors.put(base + Float.BYTES + i, scale == 0 ? 0 : (byte) Math.round(vector[i] / scale));
+        }
+    }
+
+    private float[] vectorOf(int node) {
+        int base = node * bytesPerVector;
+        float[] vector = new float[dimension];
+        if (quantized) {
+            float scale = vectors.getFloat(base);
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = vectors.get(base + Float.BYTES + i) * scale;
+            }
+            return vector;
+        }
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = vectors.getFloat(base + i * Float.BYTES);
+        }
+        return vector;
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (links.length < nodes) {
+            int[][][] grown = new int[Math.max(nodes, links.length * 2)][][];
+            System.arraycopy(links, 0, grown, 0, size);
+            links = grown;
+        }
+        if (vectors.capacity() < nodes * bytesPerVector) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(nodes * bytesPerVector, vectors.capacity() * 2));
+            ByteBuffer source = vectors.duplicate();
+            source.position(0).limit(size * bytesPerVector);
+            grown.put(source);
+            vectors = grown;
+        }
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = norm == 0 ? 0 : (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    private static List<String> randomIds(int count) {
+        List<String> newIds = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            newIds.add(UUID.randomUUID().toString());
+        }
+        return newIds;
+    }
+
+    /**
+     * @return 未删除且带有分段的节点，ID到分段的映射
+     */
+    public Map<String, TextSegment> liveSegments() {
+        lock.readLock().lock();
+        try {
+            Map<String, TextSegment> live = new LinkedHashMap<>();
+            nodeById.forEach((id, node) -> {
+                if (segments.get(node) != null) {
+                    live.put(id, segments.get(node));
+                }
+            });
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 以原始浮点向量加噪声作为查询，对比本索引与 InMemoryEmbeddingStore（原始浮点向量全量扫描）的耗时和召回率，
+     * 召回率因此同时包含图检索和量化带来的误差
+     *
+     * @param queries   查询次数，最多 2000
+     * @param k         每次返回的条数，最多 100
+     * @param originals 未量化的原始向量（ID到向量），作为精确检索的基准
+     * @return 平均耗时（微秒）与 recall@k
+     */
+    public Map<String, Object> benchmark(int queries, int k, Map<String, Embedding> originals) {
+        queries = Math.max(1, Math.min(queries, MAX_BENCHMARK_QUERIES));
+        k = Math.max(1, Math.min(k, MAX_BENCHMARK_K));
+        InMemoryEmbeddingStore<TextSegment> flat = new InMemoryEmbeddingStore<>();
+        List<float[]> bases = new ArrayList<>(originals.size());
+        originals.forEach((id, embedding) -> {
+            flat.add(id, embedding);
+            bases.add(embedding.vector());
+        });
+        List<Embedding> samples = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < queries && !bases.isEmpty(); i++) {
+            float[] query = normalize(bases.get(random.nextInt(bases.size())));
+            for (int d = 0; d < query.length; d++) {
+                query[d] += (float) (random.nextGaussian() * 0.05);
+            }
+            samples.add(Embedding.from(query));
+        }
+
+        long hnswNanos = 0;
+        long flatNanos = 0;
+        long hits = 0;
+        long expected = 0;
+        for (Embedding query : samples) {
+            EmbeddingSearchRequest request = EmbeddingSearchRequest.builder()
+                    .queryEmbedding(query).maxResults(k).build();
+            long start = System.nanoTime();
+            EmbeddingSearchResult<TextSegment> approximate = search(request);
+            hnswNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            EmbeddingSearchResult<TextSegment> exact = flat.search(request);
+            flatNanos += System.nanoTime() - start;
+
+            Set<String> truth = new HashSet<>();
+            exact.matches().forEach(match -> truth.add(match.embeddingId()));
+            expected += truth.size();
+            for (EmbeddingMatch<TextSegment> match : approximate.matches()) {
+                if (truth.contains(match.embeddingId())) {
+                    hits++;
+                }
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        int n = Math.max(samples.size(), 1);
+        result.put("vectors", size());
+        result.put("baselineVectors", originals.size());
+        result.put("queries", samples.size());
+        result.put("k", k);
+        result.put("efSearch", efSearch);
+        result.put("quantized", quantized);
+        result.put("hnswAvgMicros", hnswNanos / 1000 / n);
+        result.put("flatAvgMicros", flatNanos / 1000 / n);
+        result.put("recall", expected == 0 ? 1.0 : (double) hits / expected);
+        return result;
+    }
+
+    /**
+     * 保存到文件：头部参数、连续的向量区、各节点的ID、分段与邻接表
+     */
+    public void serializeToFile(Path file) {
+        lock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeBoolean(quantized);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(dimension);
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            if (size > 0) {
+                byte[] region = new byte[size * bytesPerVector];
+                vectors.duplicate().position(0).get(region);
+                out.write(region);
+            }
+            for (int node = 0; node < size; node++) {
+                out.writeBoolean(deleted.get(node));
+                writeString(out, ids.get(node));
+                TextSegment segment = segments.get(node);
+                out.writeBoolean(segment != null);
+                if (segment != null) {
+                    writeString(out, segment.text());
+                    writeString(out, OBJECT_MAPPER.writeValueAsString(segment.metadata().toMap()));
+                }
+                out.writeInt(links[node].length);
+                for (int[] neighbors : links[node]) {
+                    out.writeInt(neighbors.length);
+                    for (int neighbor : neighbors) {
+                        out.writeInt(neighbor);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从文件加载，向量区通过内存映射直接复制到堆外内存
+     *
+     * @param file     由 serializeToFile 写出的文件
+     * @param efSearch 查询时的候选集大小
+     */
+    public static HnswEmbeddingStore fromFile(Path file, int efSearch) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC) {
+                throw new IllegalArgumentException("不是可识别的向量索引文件: " + file);
+            }
+            int formatVersion = in.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IllegalArgumentException("向量索引文件版本 " + formatVersion + " 不受支持，应为 " + FORMAT_VERSION);
+            }
+            boolean quantized = in.get() != 0;
+            int m = in.getInt();
+            int efConstruction = in.getInt();
+            HnswEmbeddingStore store = new HnswEmbeddingStore(m, efConstruction, efSearch, quantized);
+            store.dimension = in.getInt();
+            int size = in.getInt();
+            store.entryPoint = in.getInt();
+            store.maxLevel = in.getInt();
+            if (store.dimension < 0) {
+                return store;
+            }
+
+            store.bytesPerVector = bytesPerVector(store.dimension, quantized);
+            store.vectors = ByteBuffer.allocateDirect(Math.max(size, 1024) * store.bytesPerVector);
+            ByteBuffer region = in.slice();
+            region.limit(size * store.bytesPerVector);
+            store.vectors.put(region);
+            in.position(in.position() + size * store.bytesPerVector);
+
+            store.links = new int[Math.max(size, 64)][][];
+            for (int node = 0; node < size; node++) {
+                if (in.get() != 0) {
+                    store.markDeleted(node);
+                }
+                String id = readString(in);
+                TextSegment segment = null;
+                if (in.get() != 0) {
+                    String text = readString(in);
+                    Map<String, Object> metadata = OBJECT_MAPPER.readValue(readString(in),
+                            new TypeReference<Map<String, Object>>() {
+                            });
+                    segment = TextSegment.from(text, Metadata.from(metadata));
+                }
+                int levels = in.getInt();
+                store.links[node] = new int[levels][];
+                for (int lc = 0; lc < levels; lc++) {
+                    int[] neighbors = new int[in.getInt()];
+                    for (int i = 0; i < neighbors.length; i++) {
+                        neighbors[i] = in.getInt();
+                    }
+                    store.links[node][lc] = neighbors;
+                }
+                store.ids.add(id);
+                store.segments.add(segment);
+                if (!store.deleted.get(node)) {
+                    store.nodeById.put(id, node);
+                }
+            }
+            store.size = size;
+            return store;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,145 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 混合检索器
+ * 本地倒排索引（BM25）与向量检索的结果按倒数排名融合（RRF）后取前几条；
+ * 倒排检索耗时不到一毫秒，在调用线程中先执行，较短的查询（如医生姓名、药品名）被完整命中时直接返回，
+ * 不再进行向量检索。向量检索各来源的并行与截止时间由 CompositeContentRetriever 负责
+ */
+public class HybridContentRetriever implements ContentRetriever {
+
+    private static final Logger logger = LoggerFactory.getLogger(HybridContentRetriever.class);
+
+    private final Supplier<LexicalIndex> lexicalIndex;
+    private final ContentRetriever vectorRetriever;
+    private final int candidates;
+    private final int maxResults;
+    private final int rrfK;
+    private final int exactMaxChars;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder exactHits = new LongAdder();
+    private final LongAdder vectorFailures = new LongAdder();
+    private final LongAdder lexicalOnlyResults = new LongAdder();
+    private final LongAdder lexicalNanos = new LongAdder();
+
+    /**
+     * @param lexicalIndex    当前的倒排索引，知识库未就绪时为空
+     * @param vectorRetriever 向量检索器
+     * @param candidates      倒排索引参与融合的候选数
+     * @param maxResults      融合后返回的条数
+     * @param rrfK            RRF平滑常数，越大排名靠后的结果权重越高
+     * @param exactMaxChars   直接返回倒排结果的查询最大长度，0 表示不启用
+     */
+    public HybridContentRetriever(Supplier<LexicalIndex> lexicalIndex, ContentRetriever vectorRetriever,
+                                  int candidates, int maxResults, int rrfK, int exactMaxChars) {
+        this.lexicalIndex = lexicalIndex;
+        this.vectorRetriever = vectorRetriever;
+        this.candidates = candidates;
+        this.maxResults = maxResults;
+        this.rrfK = rrfK;
+        this.exactMaxChars = exactMaxChars;
+    }
+
+    @Override
+    public List<Content> retrieve(Query query) {
+        requests.increment();
+        long start = System.nanoTime();
+        LexicalIndex index = lexicalIndex.get();
+        List<LexicalIndex.Match> matches = index == null ? List.of() : index.search(query.text(), candidates);
+        lexicalNanos.add(System.nanoTime() - start);
+
+        if (isExactHit(query.text(), matches)) {
+            exactHits.increment();
+            List<Content> contents = new ArrayList<>();
+            for (LexicalIndex.Match match : matches) {
+                if (contents.size() >= maxResults || match.coverage() < 1.0) {
+                    break;
+                }
+                contents.add(Content.from(match.segment()));
+            }
+            return contents;
+        }
+
+        List<Content> vectorContents;
+        try {
+            vectorContents = vectorRetriever.retrieve(query);
+        } catch (RuntimeException e) {
+            vectorFailures.increment();
+            logger.warn("向量检索失败，仅使用倒排索引结果", e);
+            vectorContents = List.of();
+        }
+        return fuse(matches, vectorContents);
+    }
+
+    private boolean isExactHit(String text, List<LexicalIndex.Match> matches) {
+        return exactMaxChars > 0
+                && !matches.isEmpty()
+                && text.strip().codePointCount(0, text.strip().length()) <= exactMaxChars
+                && matches.get(0).coverage() >= 1.0;
+    }
+
+    /**
+     * 倒数排名融合，同一分段（按文本判断）在两路中的得分相加
+     */
+    private List<Content> fuse(List<LexicalIndex.Match> matches, List<Content> vectorContents) {
+        Map<String, Content> contents = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        Map<String, Boolean> fromVector = new LinkedHashMap<>();
+        for (int rank = 0; rank < matches.size(); rank++) {
+            Content content = Content.from(matches.get(rank).segment());
+            String key = content.textSegment().text();
+            contents.putIfAbsent(key, content);
+            scores.merge(key, 1.0 / (rrfK + rank + 1), Double::sum);
+        }
+        for (int rank = 0; rank < vectorContents.size(); rank++) {
+            Content content = vectorContents.get(rank);
+            String key = content.textSegment().text();
+            contents.putIfAbsent(key, content);
+            scores.merge(key, 1.0 / (rrfK + rank + 1), Double::sum);
+            fromVector.put(key, true);
+        }
+
+        List<String> ranked = new ArrayList<>(scores.keySet());
+        ranked.sort((a, b) -> Double.compare(scores.get(b), scores.get(a)));
+        List<Content> result = new ArrayList<>(maxResults);
+        for (String key : ranked.subList(0, Math.min(maxResults, ranked.size()))) {
+            result.add(contents.get(key));
+            if (!fromVector.containsKey(key)) {
+                lexicalOnlyResults.increment();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取检索统计信息
+     *
+     * @return 请求数、倒排索引直接命中数、仅由倒排索引找到的结果数、向量检索失败数及倒排检索平均耗时
+     */
+    public Map<String, Object> getStats() {
+        long requestCount = requests.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("requests", requestCount);
+        stats.put("exactHits", exactHits.sum());
+        stats.put("lexicalOnlyResults", lexicalOnlyResults.sum());
+        stats.put("vectorFailures", vectorFailures.sum());
+        stats.put("lexicalAvgMicros", requestCount == 0 ? 0 : lexicalNanos.sum() / 1000 / requestCount);
+        LexicalIndex index = lexicalIndex.get();
+        stats.put("lexicalSegments", index == null ? 0 : index.size());
+        return stats;
+    }
+}
@@ -0,0 +1,763 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.loader.FileSystemDocumentLoader;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.content.retriever.EmbeddingStoreContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 本地知识库
+ * 启动后在后台线程中加载向量快照文件，再与知识库目录做增量同步：按文件内容摘要判断文档是否变化，
+ * 变化的文档重新分段后只对新出现的分段向量化，消失的分段和已删除文件的分段从向量库中移除；
+ * 全部向量化成功后才一次性应用并发布新版本，中途失败时检索内容与快照都保持原样；
+ * 可选监听目录变化自动同步。加载期间检索返回空结果（未就绪），应用照常提供服务；
+ * 向量索引可选 HNSW 图（HnswEmbeddingStore）或全量扫描（InMemoryEmbeddingStore）；
+ * 同时维护同样分段的倒排索引（LexicalIndex），供混合检索使用。
+ * Markdown 文档按标题、表格、列表结构分段（MarkdownDocumentSplitter），其余文档按长度递归分段
+ */
+@Component
+public class KnowledgeBase {
+
+    private static final Logger logger = LoggerFactory.getLogger(KnowledgeBase.class);
+    private static final String MANIFEST_SUFFIX = ".manifest";
+    private static final String MODEL_SUFFIX = ".model";
+
+    /**
+     * 知识库状态
+     */
+    public enum State {
+        NOT_READY, LOADING, INGESTING, READY, FAILED
+    }
+
+    /**
+     * 单个文档的同步记录
+     *
+     * @param hash       文件内容摘要
+     * @param segmentIds 分段摘要到向量库ID的映射
+     * @param splitter   分段方式及参数，变化后即使文件未变也重新分段
+     */
+    record DocumentRecord(String hash, Map<String, String> segmentIds, String splitter) {
+    }
+
+    @Autowired
+    @Qualifier("localEmbeddingModel")
+    private EmbeddingModel embeddingModel;
+
+    // 本地知识库使用的向量模型，快照中记录该值，更换模型后旧快照不再使用
+    @Value("${rag.embedding.local.provider:dashscope}")
+    private String embeddingProvider;
+
+    // 知识库文档目录
+    @Value("${rag.knowledge.dir:knowledge}")
+    private String knowledgeDir;
+
+    // 向量快照文件（不含扩展名），留空表示不保存快照；按向量索引加扩展名：hnsw 为二进制 .bin，flat 为 .json；
+    // 同步记录保存在同名的 .manifest 文件中
+    @Value("${rag.knowledge.snapshot-file:data/knowledge-embeddings}")
+    private String snapshotFile;
+
+    // 文档分段长度（字符）与重叠长度
+    @Value("${rag.knowledge.segment-size:500}")
+    private int segmentSize;
+
+    @Value("${rag.knowledge.segment-overlap:50}")
+    private int segmentOverlap;
+
+    // Markdown 文档每个分段的最大token数（估算值）
+    @Value("${rag.knowledge.markdown.max-tokens:400}")
+    private int markdownMaxTokens;
+
+    // 单次向量化请求的分段数
+    @Value("${rag.knowledge.embed-batch-size:10}")
+    private int embedBatchSize;
+
+    // 检索返回的最大分段数与最小相似度
+    @Value("${rag.knowledge.max-results:3}")
+    private int maxResults;
+
+    @Value("${rag.knowledge.min-score:0.0}")
+    private double minScore;
+
+    // 是否监听知识库目录，文件变化后自动增量同步
+    @Value("${rag.knowledge.watch:false}")
+    private boolean watch;
+
+    // 目录变化后等待多久再同步，合并连续的多次保存
+    @Value("${rag.knowledge.watch-debounce-ms:2000}")
+    private long watchDebounceMs;
+
+    // 向量索引：hnsw 近似最近邻图，flat 全量扫描；切换后旧快照无法读取，会重新向量化
+    @Value("${rag.knowledge.index:hnsw}")
+    private String indexType;
+
+    // HNSW参数：每层邻居数、建图候选集大小、查询候选集大小（越大召回率越高）、是否以int8保存向量
+    @Value("${rag.knowledge.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${rag.knowledge.hnsw.ef-construction:200}")
+    private int hnswEfConstruction;
+
+    @Value("${rag.knowledge.hnsw.ef-search:64}")
+    private int hnswEfSearch;
+
+    @Value("${rag.knowledge.hnsw.quantized:true}")
+    private boolean hnswQuantized;
+
+    // 已删除节点超过该比例时重建HNSW索引，回收被删除分段占用的空间
+    @Value("${rag.knowledge.hnsw.compact-threshold:0.2}")
+    private double hnswCompactThreshold;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "knowledge-ingest");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile State state = State.NOT_READY;
+    private volatile ContentRetriever retriever;
+    private volatile EmbeddingStore<TextSegment> publishedStore;
+    private volatile LexicalIndex publishedLexicalIndex;
+    // 每次发布新的检索内容后递增
+    private final AtomicLong version = new AtomicLong();
+    private volatile String source;
+    private volatile long lastLoadMillis;
+
+    // 以下字段只在 knowledge-ingest 线程中访问
+    private EmbeddingStore<TextSegment> embeddingStore;
+    private LexicalIndex lexicalIndex = new LexicalIndex();
+    private Map<String, DocumentRecord> manifest = new HashMap<>();
+    private ScheduledFuture<?> pendingSync;
+
+    private volatile int documentCount;
+    private volatile int segmentCount;
+    private volatile int lastEmbedded;
+    private volatile int lastRemoved;
+
+    private WatchService watchService;
+
+    /**
+     * 应用启动完成后在后台加载知识库，不阻塞启动
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        executor.submit(() -> {
+            if (!loadSnapshot()) {
+                embeddingStore = newStore();
+                manifest = new HashMap<>();
+            }
+            synchronize(false);
+            if (watch) {
+                startWatching();
+            }
+        });
+    }
+
+    /**
+     * 在后台丢弃现有向量并全部重新向量化，重建期间及重建失败时继续使用旧的向量（若有）
+     *
+     * @return 重建任务
+     */
+    public Future<?> rebuild() {
+        return executor.submit(() -> synchronize(true));
+    }
+
+    /**
+     * 在后台与知识库目录做一次增量同步
+     *
+     * @return 同步任务
+     */
+    public Future<?> refresh() {
+        return executor.submit(() -> synchronize(false));
+    }
+
+    /**
+     * @return 知识库检索器，未就绪时返回空结果
+     */
+    public ContentRetriever retriever() {
+        return this::retrieve;
+    }
+
+    /**
+     * @return 与向量库同步的倒排索引，未就绪时为空
+     */
+    public LexicalIndex lexicalIndex() {
+        return publishedLexicalIndex;
+    }
+
+    /**
+     * 知识库内容版本，每次加载或同步出变化后递增，依赖知识库内容的缓存据此判断是否失效
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    public boolean isReady() {
+        return retriever != null;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    private List<Content> retrieve(Query query) {
+        ContentRetriever current = retriever;
+        if (current == null) {
+            logger.debug("知识库尚未就绪，跳过检索");
+            return List.of();
+        }
+        return current.retrieve(query);
+    }
+
+    private boolean loadSnapshot() {
+        Path snapshot = snapshotPath();
+        if (snapshot == null || !Files.isRegularFile(snapshot)) {
+            return false;
+        }
+        Path manifestFile = manifestPath(snapshot);
+        if (!Files.isRegularFile(manifestFile)) {
+            // 没有同步记录无法增量同步，重新向量化
+            logger.warn("知识库快照缺少同步记录，将重新向量化: {}", manifestFile);
+            return false;
+        }
+        String snapshotProvider = readSnapshotProvider(snapshot);
+        if (!embeddingProvider.equals(snapshotProvider)) {
+            logger.warn("知识库快照由向量模型 {} 生成，当前为 {}，将重新向量化", snapshotProvider, embeddingProvider);
+            return false;
+        }
+        state = State.LOADING;
+        long start = System.currentTimeMillis();
+        try {
+            embeddingStore = isHnsw()
+                    ? HnswEmbeddingStore.fromFile(snapshot, hnswEfSearch)
+                    : InMemoryEmbeddingStore.fromFile(snapshot);
+            manifest = objectMapper.readValue(manifestFile.toFile(), new TypeReference<HashMap<String, DocumentRecord>>() {
+            });
+            publish(embeddingStore, "snapshot", start);
+            logger.info("已从快照加载知识库向量: {}，耗时 {} ms", snapshot, lastLoadMillis);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.error("加载知识库快照失败，改为重新向量化: {}", snapshot, e);
+            return false;
+        }
+    }
+
+    /**
+     * 增量同步，只在 knowledge-ingest 线程中执行
+     * 先对全部变化的文档完成分段和向量化，期间不修改向量库、倒排索引和同步记录；任一文档失败时整次同步放弃，
+     * 检索继续使用原有内容，下次同步重试。全部成功后一次性应用到向量库和倒排索引，再发布新版本并写入快照。
+     * 全量重建时应用到新建的向量库和倒排索引上，成功后才替换原有的
+     *
+     * @param full 是否为丢弃旧向量后的全量重建
+     */
+    private void synchronize(boolean full) {
+        Path dir = Paths.get(knowledgeDir);
+        if (!Files.isDirectory(dir)) {
+            logger.warn("知识库目录不存在: {}", dir.toAbsolutePath());
+            state = retriever != null ? State.READY : State.FAILED;
+            return;
+        }
+        if (retriever == null) {
+            state = State.INGESTING;
+        }
+        long start = System.currentTimeMillis();
+        EmbeddingStore<TextSegment> store = full ? newStore() : embeddingStore;
+        LexicalIndex lexical = full ? new LexicalIndex() : lexicalIndex;
+        Map<String, DocumentRecord> base = full ? Map.of() : manifest;
+        try {
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(dir)) {
+                files = walk.filter(Files::isRegularFile).sorted().toList();
+            }
+
+            List<DocumentChange> changes = new ArrayList<>();
+            // 从快照加载时倒排索引为空，未变化的文档只需重新分段补进倒排索引，不必向量化
+            Map<String, TextSegment> reindex = new LinkedHashMap<>();
+            Set<String> seen = new HashSet<>();
+            for (Path file : files) {
+                String key = dir.relativize(file).toString().replace('\\', '/');
+                seen.add(key);
+                String hash = sha256(Files.readAllBytes(file));
+                DocumentRecord previous = base.get(key);
+                if (previous != null && previous.hash().equals(hash)
+                        && Objects.equals(previous.splitter(), splitterSignature(key))) {
+                    if (!previous.segmentIds().isEmpty()
+                            && !lexical.contains(previous.segmentIds().values().iterator().next())) {
+                        reindex.putAll(lexicalSegments(key, file, previous));
+                    }
+                    continue;
+                }
+                changes.add(planDocument(key, file, hash, previous));
+            }
+
+            // 已删除的文件
+            for (Map.Entry<String, DocumentRecord> entry : base.entrySet()) {
+                if (!seen.contains(entry.getKey())) {
+                    changes.add(new DocumentChange(entry.getKey(), null,
+                            new ArrayList<>(entry.getValue().segmentIds().values()), List.of(), List.of(), List.of(), Map.of()));
+                }
+            }
+
+            // 向量化全部完成，以下只有内存操作
+            Map<String, DocumentRecord> nextManifest = new HashMap<>(base);
+            int embedded = 0;
+            int removed = 0;
+            for (DocumentChange change : changes) {
+                apply(store, lexical, change);
+                if (change.record() == null) {
+                    nextManifest.remove(change.key());
+                    logger.info("知识库文档已删除: {}，移除 {} 个分段", change.key(), change.removeIds().size());
+                } else {
+                    nextManifest.put(change.key(), change.record());
+                    logger.info("知识库文档已更新: {}，新增 {} 个分段，移除 {} 个分段",
+                            change.key(), change.addIds().size(), change.removeIds().size());
+                }
+                embedded += change.addIds().size();
+                removed += change.removeIds().size();
+            }
+            reindex.forEach(lexical::add);
+
+            embeddingStore = store;
+            lexicalIndex = lexical;
+            manifest = nextManifest;
+            documentCount = manifest.size();
+            segmentCount = manifest.values().stream().mapToInt(r -> r.segmentIds().size()).sum();
+            lastEmbedded = embedded;
+            lastRemoved = removed;
+            if (!changes.isEmpty() || full || retriever == null) {
+                store = compactIfNeeded(store);
+                publish(store, full || retriever == null ? "ingest" : source, start);
+                writeSnapshot(store);
+            }
+            state = State.READY;
+            logger.info("知识库同步完成，向量化 {} 个分段，移除 {} 个分段，耗时 {} ms",
+                    embedded, removed, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            state = retriever != null ? State.READY : State.FAILED;
+            logger.error("知识库同步失败，保留原有内容: {}", dir.toAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * 一个文档的同步内容，新分段的向量已经算好
+     *
+     * @param key           文档相对路径
+     * @param record        新的同步记录，文档已删除时为空
+     * @param removeIds     要移除的分段ID
+     * @param addIds        新增分段的ID
+     * @param addEmbeddings 新增分段的向量
+     * @param addSegments   新增的分段
+     * @param segments      文档当前的全部分段（ID到分段），用于更新倒排索引
+     */
+    private record DocumentChange(String key, DocumentRecord record, List<String> removeIds,
+                                  List<String> addIds, List<Embedding> addEmbeddings, List<TextSegment> addSegments,
+                                  Map<String, TextSegment> segments) {
+    }
+
+    /**
+     * 重新切分变化的文档，只对新出现的分段向量化，不修改向量库和倒排索引
+     */
+    private DocumentChange planDocument(String key, Path file, String hash, DocumentRecord previous) {
+        Map<String, String> oldIds = previous != null ? previous.segmentIds() : Map.of();
+        Map<String, String> newIds = new LinkedHashMap<>();
+        Map<String, TextSegment> newSegments = new LinkedHashMap<>();
+        List<String> addIds = new ArrayList<>();
+        List<TextSegment> addSegments = new ArrayList<>();
+        split(key, file).forEach((segmentKey, segment) -> {
+            String id = oldIds.get(segmentKey);
+            if (id == null) {
+                id = UUID.nameUUIDFromBytes((key + '\u0000' + segmentKey).getBytes(StandardCharsets.UTF_8)).toString();
+                addIds.add(id);
+                addSegments.add(segment);
+            }
+            newIds.put(segmentKey, id);
+            newSegments.put(id, segment);
+        });
+
+        List<Embedding> addEmbeddings = new ArrayList<>(addSegments.size());
+        for (int from = 0; from < addSegments.size(); from += embedBatchSize) {
+            int to = Math.min(from + embedBatchSize, addSegments.size());
+            addEmbeddings.addAll(embeddingModel.embedAll(addSegments.subList(from, to)).content());
+        }
+
+        List<String> removeIds = new ArrayList<>();
+        oldIds.forEach((segmentKey, id) -> {
+            if (!newIds.containsKey(segmentKey)) {
+                removeIds.add(id);
+            }
+        });
+        return new DocumentChange(key, new DocumentRecord(hash, newIds, splitterSignature(key)),
+                removeIds, addIds, addEmbeddings, addSegments, newSegments);
+    }
+
+    private static void apply(EmbeddingStore<TextSegment> store, LexicalIndex lexical, DocumentChange change) {
+        if (!change.removeIds().isEmpty()) {
+            store.removeAll(change.removeIds());
+            change.removeIds().forEach(lexical::remove);
+        }
+        if (!change.addIds().isEmpty()) {
+            store.addAll(change.addIds(), change.addEmbeddings(), change.addSegments());
+        }
+        change.segments().forEach(lexical::add);
+    }
+
+    /**
+     * HNSW索引中已删除节点过多时重建，新索引在发布后替换旧索引
+     */
+    private EmbeddingStore<TextSegment> compactIfNeeded(EmbeddingStore<TextSegment> store) {
+        if (!(store instanceof HnswEmbeddingStore hnsw)) {
+            return store;
+        }
+        double ratio = hnsw.deletedRatio();
+        if (ratio <= hnswCompactThreshold) {
+            return store;
+        }
+        long start = System.currentTimeMillis();
+        HnswEmbeddingStore compacted = hnsw.compact();
+        embeddingStore = compacted;
+        logger.info("HNSW索引已删除节点占比 {}，已重建，保留 {} 个分段，耗时 {} ms",
+                String.format("%.2f", ratio), compacted.size(), System.currentTimeMillis() - start);
+        return compacted;
+    }
+
+    /**
+     * 重新切分未变化的文档，ID沿用同步记录，用于补进倒排索引
+     */
+    private Map<String, TextSegment> lexicalSegments(String key, Path file, DocumentRecord record) {
+        Map<String, TextSegment> segments = new LinkedHashMap<>();
+        split(key, file).forEach((segmentKey, segment) -> {
+            String id = record.segmentIds().get(segmentKey);
+            if (id != null) {
+                segments.put(id, segment);
+            }
+        });
+        return segments;
+    }
+
+    /**
+     * 读取并切分文档
+     *
+     * @return 分段键（分段文本摘要，同一文档中重复的分段按出现次序区分）到分段的映射，保持文档顺序
+     */
+    private Map<String, TextSegment> split(String key, Path file) {
+        Document document = FileSystemDocumentLoader.loadDocument(file);
+        document.metadata().put("knowledge_path", key);
+        List<TextSegment> segments = splitterFor(key).split(document);
+        Map<String, TextSegment> result = new LinkedHashMap<>();
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (TextSegment segment : segments) {
+            String segmentHash = sha256(segment.text().getBytes(StandardCharsets.UTF_8));
+            int occurrence = occurrences.merge(segmentHash, 1, Integer::sum);
+            result.put(occurrence == 1 ? segmentHash : segmentHash + "#" + occurrence, segment);
+        }
+        return result;
+    }
+
+    private void publish(EmbeddingStore<TextSegment> store, String source, long start) {
+        this.retriever = EmbeddingStoreContentRetriever.builder()
+                .embeddingModel(embeddingModel)
+                .embeddingStore(store)
+                .maxResults(maxResults)
+                .minScore(minScore)
+                .build();
+        this.publishedStore = store;
+        this.publishedLexicalIndex = lexicalIndex;
+        this.version.incrementAndGet();
+        this.source = source;
+        this.lastLoadMillis = System.currentTimeMillis() - start;
+        this.state = State.READY;
+    }
+
+    /**
+     * 写入快照，只在一次同步完整成功后调用
+     * 快照、同步记录和向量模型记录都先写临时文件，全部写完后再逐个原子替换，
+     * 避免重启时读到写了一半的快照；任一临时文件写入失败时保留原有快照
+     */
+    private void writeSnapshot(EmbeddingStore<TextSegment> store) {
+        Path snapshot = snapshotPath();
+        if (snapshot == null) {
+            return;
+        }
+        Path manifestFile = manifestPath(snapshot);
+        Path modelFile = modelPath(snapshot);
+        List<Path> temps = new ArrayList<>();
+        try {
+            Path parent = snapshot.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path tmp = createTemp(parent, snapshot, temps);
+            if (store instanceof HnswEmbeddingStore hnsw) {
+                hnsw.serializeToFile(tmp);
+            } else {
+                ((InMemoryEmbeddingStore<TextSegment>) store).serializeToFile(tmp);
+            }
+            Path manifestTmp = createTemp(parent, manifestFile, temps);
+            objectMapper.writeValue(manifestTmp.toFile(), manifest);
+            Path modelTmp = createTemp(parent, modelFile, temps);
+            Files.writeString(modelTmp, embeddingProvider);
+
+            Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(manifestTmp, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(modelTmp, modelFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            logger.error("写入知识库快照失败: {}", snapshot, e);
+            for (Path temp : temps) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // 临时文件清理失败不影响下次写入
+                }
+            }
+        }
+    }
+
+    private static Path createTemp(Path parent, Path target, List<Path> temps) throws IOException {
+        Path temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        temps.add(temp);
+        return temp;
+    }
+
+    /**
+     * 监听知识库目录（含子目录），变化后延迟合并再同步
+     */
+    private void startWatching() {
+        Path dir = Paths.get(knowledgeDir);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            try (Stream<Path> walk = Files.walk(dir)) {
+                for (Path sub : walk.filter(Files::isDirectory).toList()) {
+                    register(sub);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("监听知识库目录失败: {}", dir.toAbsolutePath(), e);
+            return;
+        }
+
+        Thread watcher = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey watchKey = watchService.take();
+                    Path changedDir = (Path) watchKey.watchable();
+                    watchKey.pollEvents().forEach(event -> {
+                        Path changed = changedDir.resolve((Path) event.context());
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                            register(changed);
+                        }
+                    });
+                    watchKey.reset();
+                    scheduleSync();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // 应用关闭
+            }
+        }, "knowledge-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        logger.info("已开始监听知识库目录: {}", dir.toAbsolutePath());
+    }
+
+    private void register(Path dir) {
+        try {
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            logger.warn("监听知识库子目录失败: {}", dir, e);
+        }
+    }
+
+    private synchronized void scheduleSync() {
+        if (pendingSync != null && !pendingSync.isDone()) {
+            pendingSync.cancel(false);
+        }
+        pendingSync = executor.schedule(() -> synchronize(false), watchDebounceMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean isMarkdown(String key) {
+        String lower = key.toLowerCase();
+        return lower.endsWith(".md") || lower.endsWith(".markdown");
+    }
+
+    private DocumentSplitter splitterFor(String key) {
+        return isMarkdown(key)
+                ? new MarkdownDocumentSplitter(markdownMaxTokens)
+                : DocumentSplitters.recursive(segmentSize, segmentOverlap);
+    }
+
+    private String splitterSignature(String key) {
+        return isMarkdown(key)
+                ? "markdown:" + markdownMaxTokens
+                : "recursive:" + segmentSize + "/" + segmentOverlap;
+    }
+
+    private boolean isHnsw() {
+        return "hnsw".equalsIgnoreCase(indexType);
+    }
+
+    private EmbeddingStore<TextSegment> newStore() {
+        return isHnsw()
+                ? new HnswEmbeddingStore(hnswM, hnswEfConstruction, hnswEfSearch, hnswQuantized)
+                : new InMemoryEmbeddingStore<>();
+    }
+
+    /**
+     * 对当前的 HNSW 索引做一次耗时与召回率测试，基准为同样分段的原始浮点向量上的全量扫描；
+     * 原始向量通过向量模型重新获取，一般命中向量缓存
+     *
+     * @param queries 查询次数
+     * @param k       每次返回的条数
+     * @return 测试结果，未就绪或未使用 HNSW 时只返回原因
+     */
+    public Map<String, Object> benchmark(int queries, int k) {
+        if (!(publishedStore instanceof HnswEmbeddingStore hnsw)) {
+            return Map.of("error", "知识库未就绪或未使用HNSW索引", "index", indexType);
+        }
+        List<String> ids = new ArrayList<>();
+        List<TextSegment> segments = new ArrayList<>();
+        hnsw.liveSegments().forEach((id, segment) -> {
+            ids.add(id);
+            segments.add(segment);
+        });
+        Map<String, Embedding> originals = new LinkedHashMap<>();
+        try {
+            for (int from = 0; from < segments.size(); from += embedBatchSize) {
+                int to = Math.min(from + embedBatchSize, segments.size());
+                List<Embedding> embeddings = embeddingModel.embedAll(segments.subList(from, to)).content();
+                for (int i = from; i < to; i++) {
+                    originals.put(ids.get(i), embeddings.get(i - from));
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warn("获取原始向量失败，无法进行向量索引测试", e);
+            return Map.of("error", "获取原始向量失败: " + e.getMessage(), "index", indexType);
+        }
+        return hnsw.benchmark(queries, k, originals);
+    }
+
+    /**
+     * 快照文件路径，扩展名由向量索引决定；配置中带有 .json 或 .bin 扩展名时先去掉
+     */
+    private Path snapshotPath() {
+        if (snapshotFile == null || snapshotFile.isBlank()) {
+            return null;
+        }
+        String base = snapshotFile.strip().replaceFirst("\\.(json|bin)$", "");
+        return Paths.get(base + (isHnsw() ? ".bin" : ".json"));
+    }
+
+    private static Path manifestPath(Path snapshot) {
+        return snapshot.resolveSibling(snapshot.getFileName() + MANIFEST_SUFFIX);
+    }
+
+    private static Path modelPath(Path snapshot) {
+        return snapshot.resolveSibling(snapshot.getFileName() + MODEL_SUFFIX);
+    }
+
+    /**
+     * 读取快照对应的向量模型，早期的快照没有记录，均由 dashscope 生成
+     */
+    private static String readSnapshotProvider(Path snapshot) {
+        Path modelFile = modelPath(snapshot);
+        try {
+            return Files.isRegularFile(modelFile) ? Files.readString(modelFile).strip() : "dashscope";
+        } catch (IOException e) {
+            logger.warn("读取知识库快照的向量模型记录失败: {}", modelFile, e);
+            return null;
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    /**
+     * 获取知识库统计信息
+     *
+     * @return 状态、来源（快照或重新向量化）、文档数、分段数及最近一次同步的向量化与移除数量
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state);
+        stats.put("ready", isReady());
+        stats.put("source", source);
+        stats.put("documents", documentCount);
+        stats.put("segments", segmentCount);
+        stats.put("lastEmbedded", lastEmbedded);
+        stats.put("lastRemoved", lastRemoved);
+        stats.put("lastLoadMillis", lastLoadMillis);
+        stats.put("watching", watchService != null);
+        stats.put("index", indexType);
+        stats.put("version", version.get());
+        stats.put("embeddingProvider", embeddingProvider);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.debug("关闭知识库目录监听失败", e);
+            }
+        }
+    }
+}
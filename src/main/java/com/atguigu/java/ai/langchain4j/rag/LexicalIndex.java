@@ -0,0 +1,195 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 知识库分段的倒排索引，按BM25打分
+ * 中文按相邻两字切分（单字成段时保留单字），英文与数字按连续字母数字切分并转小写，
+ * 不依赖分词词典，医生姓名、科室名、药品名等专有名词也能精确命中
+ */
+public class LexicalIndex {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    /**
+     * 检索结果
+     *
+     * @param id       分段ID（与向量库一致）
+     * @param segment  分段
+     * @param score    BM25分数
+     * @param coverage 查询词中被该分段命中的比例
+     */
+    public record Match(String id, TextSegment segment, double score, double coverage) {
+    }
+
+    private record Doc(TextSegment segment, Map<String, Integer> termFrequencies, int length) {
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Map<String, Integer>> postings = new HashMap<>();
+    private final Map<String, Doc> docs = new HashMap<>();
+    private long totalLength;
+
+    /**
+     * 添加分段，ID已存在时替换
+     */
+    public void add(String id, TextSegment segment) {
+        List<String> tokens = tokenize(segment.text());
+        Map<String, Integer> frequencies = new HashMap<>();
+        for (String token : tokens) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        lock.writeLock().lock();
+        try {
+            removeInternal(id);
+            docs.put(id, new Doc(segment, frequencies, tokens.size()));
+            totalLength += tokens.size();
+            frequencies.forEach((term, tf) -> postings.computeIfAbsent(term, t -> new HashMap<>()).put(id, tf));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(String id) {
+        lock.readLock().lock();
+        try {
+            return docs.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeInternal(String id) {
+        Doc doc = docs.remove(id);
+        if (doc == null) {
+            return;
+        }
+        totalLength -= doc.length();
+        for (String term : doc.termFrequencies().keySet()) {
+            Map<String, Integer> posting = postings.get(term);
+            if (posting != null) {
+                posting.remove(id);
+                if (posting.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    /**
+     * 检索
+     *
+     * @param query      查询文本
+     * @param maxResults 最大返回条数
+     * @return 按分数从高到低排列的结果
+     */
+    public List<Match> search(String query, int maxResults) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            int n = docs.size();
+            if (n == 0) {
+                return List.of();
+            }
+            double avgLength = (double) totalLength / n;
+            Map<String, double[]> scores = new HashMap<>();
+            for (String term : terms) {
+                Map<String, Integer> posting = postings.get(term);
+                if (posting == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (n - posting.size() + 0.5) / (posting.size() + 0.5));
+                posting.forEach((id, tf) -> {
+                    int length = docs.get(id).length();
+                    double norm = tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / avgLength));
+                    // [0] 分数，[1] 命中的查询词数
+                    double[] score = scores.computeIfAbsent(id, k -> new double[2]);
+                    score[0] += idf * norm;
+                    score[1]++;
+                });
+            }
+
+            List<Match> matches = new ArrayList<>(scores.size());
+            scores.forEach((id, score) ->
+                    matches.add(new Match(id, docs.get(id).segment(), score[0], score[1] / terms.size())));
+            matches.sort(Comparator.comparingDouble(Match::score).reversed());
+            return matches.size() > maxResults ? new ArrayList<>(matches.subList(0, maxResults)) : matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 切分文本：中文相邻两字一组，英文与数字取连续的字母数字，其余字符作为分隔
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            int c = text.codePointAt(i);
+            if (isCjk(c)) {
+                int start = i;
+                while (i < length && isCjk(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                addCjkTokens(text.substring(start, i), tokens);
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < length && !isCjk(text.codePointAt(i)) && Character.isLetterOrDigit(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                tokens.add(text.substring(start, i).toLowerCase());
+            } else {
+                i += Character.charCount(c);
+            }
+        }
+        return tokens;
+    }
+
+    private static void addCjkTokens(String run, List<String> tokens) {
+        int[] codePoints = run.codePoints().toArray();
+        if (codePoints.length == 1) {
+            tokens.add(run);
+            return;
+        }
+        for (int i = 0; i + 1 < codePoints.length; i++) {
+            tokens.add(new String(codePoints, i, 2));
+        }
+    }
+
+    private static boolean isCjk(int codePoint) {
+        return Character.UnicodeScript.of(codePoint) == Character.UnicodeScript.HAN;
+    }
+}
@@ -0,0 +1,240 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import com.atguigu.java.ai.langchain4j.memory.TokenEstimator;
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Markdown 文档分段
+ * 按标题层级切分，分段不跨越标题；表格、列表、代码块作为整体，不会被从中间切开，
+ * 超出长度时表格按行拆分并在每段重复表头，列表按条目、段落按句子拆分。
+ * 分段长度按 TokenEstimator 估算的token数控制；分段开头和元数据 heading_path 中带有所在的标题路径
+ */
+public class MarkdownDocumentSplitter implements DocumentSplitter {
+
+    /**
+     * 分段元数据中标题路径的键
+     */
+    public static final String HEADING_PATH = "heading_path";
+
+    private static final String PATH_SEPARATOR = " > ";
+    private static final Pattern HEADING = Pattern.compile("^(#{1,6})\\s+(.*?)\\s*#*\\s*$");
+    private static final Pattern LIST_ITEM = Pattern.compile("^\\s*(?:[-*+]|\\d+[.)])\\s+.*");
+    private static final Pattern SENTENCE_END = Pattern.compile("(?<=[。！？；!?;])");
+
+    private enum BlockType {
+        PARAGRAPH, TABLE, LIST, CODE
+    }
+
+    private record Block(BlockType type, List<String> lines) {
+
+        String text() {
+            return String.join("\n", lines);
+        }
+    }
+
+    private record Section(String path, List<Block> blocks) {
+    }
+
+    private final int maxTokens;
+
+    /**
+     * @param maxTokens 每个分段的最大token数（估算值）
+     */
+    public MarkdownDocumentSplitter(int maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    @Override
+    public List<TextSegment> split(Document document) {
+        List<TextSegment> segments = new ArrayList<>();
+        for (Section section : parse(document.text())) {
+            for (String text : chunk(section)) {
+                Metadata metadata = document.metadata().copy();
+                metadata.put(HEADING_PATH, section.path());
+                metadata.put("index", String.valueOf(segments.size()));
+                segments.add(TextSegment.from(text, metadata));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * 按标题把文档切成若干节，每节内再识别表格、列表、代码块和段落
+     */
+    private static List<Section> parse(String markdown) {
+        List<Section> sections = new ArrayList<>();
+        List<String> headings = new ArrayList<>();
+        List<Block> blocks = new ArrayList<>();
+        String[] lines = markdown.replace("\r\n", "\n").split("\n", -1);
+
+        int i = 0;
+        while (i < lines.length) {
+            String line = lines[i];
+            Matcher heading = HEADING.matcher(line);
+            if (line.isBlank()) {
+                i++;
+            } else if (heading.matches()) {
+                addSection(sections, headings, blocks);
+                blocks = new ArrayList<>();
+                int level = heading.group(1).length();
+                while (headings.size() >= level) {
+                    headings.remove(headings.size() - 1);
+                }
+                while (headings.size() < level - 1) {
+                    // 跳级的标题，中间层级留空
+                    headings.add("");
+                }
+                headings.add(heading.group(2));
+                i++;
+            } else if (line.strip().startsWith("```")) {
+                List<String> code = new ArrayList<>();
+                code.add(line);
+                i++;
+                while (i < lines.length && !lines[i].strip().startsWith("```")) {
+                    code.add(lines[i++]);
+                }
+                if (i < lines.length) {
+                    code.add(lines[i++]);
+                }
+                blocks.add(new Block(BlockType.CODE, code));
+            } else if (line.strip().startsWith("|")) {
+                List<String> table = new ArrayList<>();
+                while (i < lines.length && lines[i].strip().startsWith("|")) {
+                    table.add(lines[i++]);
+                }
+                blocks.add(new Block(BlockType.TABLE, table));
+            } else if (LIST_ITEM.matcher(line).matches()) {
+                List<String> list = new ArrayList<>();
+                // 列表项及其缩进的续行
+                while (i < lines.length && !lines[i].isBlank()
+                        && (LIST_ITEM.matcher(lines[i]).matches() || Character.isWhitespace(lines[i].charAt(0)))) {
+                    list.add(lines[i++]);
+                }
+                blocks.add(new Block(BlockType.LIST, list));
+            } else {
+                List<String> paragraph = new ArrayList<>();
+                while (i < lines.length && !lines[i].isBlank() && !HEADING.matcher(lines[i]).matches()
+                        && !lines[i].strip().startsWith("|") && !lines[i].strip().startsWith("```")
+                        && !LIST_ITEM.matcher(lines[i]).matches()) {
+                    paragraph.add(lines[i++]);
+                }
+                blocks.add(new Block(BlockType.PARAGRAPH, paragraph));
+            }
+        }
+        addSection(sections, headings, blocks);
+        return sections;
+    }
+
+    private static void addSection(List<Section> sections, List<String> headings, List<Block> blocks) {
+        if (blocks.isEmpty()) {
+            return;
+        }
+        List<String> path = headings.stream().filter(h -> !h.isEmpty()).toList();
+        sections.add(new Section(String.join(PATH_SEPARATOR, path), blocks));
+    }
+
+    /**
+     * 把一节中的块按顺序合并成不超过长度上限的分段，每段以标题路径开头
+     */
+    private List<String> chunk(Section section) {
+        String prefix = section.path().isEmpty() ? "" : section.path() + "\n";
+        int budget = Math.max(maxTokens - TokenEstimator.estimate(prefix), 1);
+
+        List<String> pieces = new ArrayList<>();
+        for (Block block : section.blocks()) {
+            String text = block.text();
+            if (TokenEstimator.estimate(text) <= budget) {
+                pieces.add(text);
+            } else {
+                pieces.addAll(splitBlock(block, budget));
+            }
+        }
+
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int currentTokens = 0;
+        for (String piece : pieces) {
+            // 块之间以空行分隔，按一个token计
+            int tokens = TokenEstimator.estimate(piece) + 1;
+            if (current.length() > 0 && currentTokens + tokens > budget) {
+                chunks.add(prefix + current);
+                current.setLength(0);
+                currentTokens = 0;
+            }
+            if (current.length() > 0) {
+                current.append("\n\n");
+            }
+            current.append(piece);
+            currentTokens += tokens;
+        }
+        if (current.length() > 0) {
+            chunks.add(prefix + current);
+        }
+        return chunks;
+    }
+
+    /**
+     * 拆分超出长度的块：表格按行（每段重复表头），列表按条目，代码按行，段落按句子
+     */
+    private static List<String> splitBlock(Block block, int budget) {
+        List<String> units = new ArrayList<>();
+        String header = "";
+        switch (block.type()) {
+            case TABLE -> {
+                List<String> lines = block.lines();
+                int bodyStart = lines.size() > 1 && lines.get(1).matches("^\\s*\\|?[\\s:|-]+\\|?\\s*$") ? 2 : 1;
+                header = String.join("\n", lines.subList(0, Math.min(bodyStart, lines.size()))) + "\n";
+                units.addAll(lines.subList(Math.min(bodyStart, lines.size()), lines.size()));
+            }
+            case LIST -> {
+                for (String line : block.lines()) {
+                    if (LIST_ITEM.matcher(line).matches() || units.isEmpty()) {
+                        units.add(line);
+                    } else {
+                        units.set(units.size() - 1, units.get(units.size() - 1) + "\n" + line);
+                    }
+                }
+            }
+            case CODE -> units.addAll(block.lines());
+            case PARAGRAPH -> {
+                for (String sentence : SENTENCE_END.split(block.text())) {
+                    if (!sentence.isBlank()) {
+                        units.add(sentence);
+                    }
+                }
+            }
+        }
+
+        String separator = block.type() == BlockType.PARAGRAPH ? "" : "\n";
+        int headerTokens = TokenEstimator.estimate(header);
+        List<String> parts = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int currentTokens = 0;
+        for (String unit : units) {
+            int tokens = TokenEstimator.estimate(unit) + 1;
+            if (current.length() > 0 && headerTokens + currentTokens + tokens > budget) {
+                parts.add(header + current);
+                current.setLength(0);
+                currentTokens = 0;
+            }
+            if (current.length() > 0) {
+                current.append(separator);
+            }
+            // 单个单元（一行、一句）本身超出上限时不再拆分
+            current.append(unit);
+            currentTokens += tokens;
+        }
+        if (current.length() > 0) {
+            parts.add(header + current);
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,113 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import dev.langchain4j.rag.query.router.QueryRouter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 基于规则的查询路由
+ * 问候、致谢、确认以及预约时补充的身份证号、手机号、日期时间等消息检索不到有用的资料，
+ * 直接跳过检索（不做向量化和向量查询，提示词中也不拼接参考资料），其余消息交给检索器
+ */
+public class RuleBasedQueryRouter implements QueryRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RuleBasedQueryRouter.class);
+
+    // 去掉标点、符号和空白后再匹配，日期时间中的分隔符保留
+    private static final Pattern NOISE = Pattern.compile("[\\p{P}\\p{S}\\s&&[^-/.:：]]+");
+
+    // 可以连续出现的寒暄、确认用语
+    private static final Pattern CHITCHAT = Pattern.compile(
+            "^(?:你好|您好|你们好|嗨|哈喽|hi|hello|在吗|在不在|谢谢你?|谢谢您|多谢|感谢|辛苦了|好的?|好吧|嗯+|哦+|噢|是的?|对的?|对|"
+                    + "可以|行|没问题|没错|确认|确定|同意|不用了?|不需要|算了|再见|拜拜|ok|okay|收到|明白了?|知道了|了解|"
+                    + "麻烦了|请|那就这样|就这样|啊|呢|吧|了)");
+
+    // 预约时补充的字段值：身份证号、手机号、日期、时段、时间
+    private static final Pattern SLOT_VALUE = Pattern.compile(
+            "^(?:(?:我的)?(?:身份证号?码?|手机号?码?|电话号?码?|联系方式)(?:是|为|[:：])?)?"
+                    + "(?:\\d{17}[\\dx]|\\d{15}|1\\d{10}"
+                    + "|(?:\\d{4}[-/.年])?\\d{1,2}[-/.月]\\d{1,2}[日号]?"
+                    + "|今天|明天|后天|大后天|(?:下+)?(?:周|星期|礼拜)[一二三四五六日天1-7]"
+                    + "|上午|下午|中午|晚上|早上|\\d{1,2}[:：点](?:半|\\d{0,2}分?))");
+
+    // 只报姓名
+    private static final Pattern NAME_ONLY = Pattern.compile("^(?:我叫|我是|姓名是?|名字是?)\\p{IsHan}{2,4}$");
+
+    private final List<ContentRetriever> retrievers;
+    private final boolean enabled;
+
+    private final LongAdder retrieved = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * @param retriever 需要检索时使用的检索器
+     * @param enabled   是否启用规则，关闭时所有消息都检索
+     */
+    public RuleBasedQueryRouter(ContentRetriever retriever, boolean enabled) {
+        this.retrievers = List.of(retriever);
+        this.enabled = enabled;
+    }
+
+    @Override
+    public Collection<ContentRetriever> route(Query query) {
+        if (enabled && !needsRetrieval(query.text())) {
+            skipped.increment();
+            logger.debug("消息无需检索: {}", query.text());
+            return List.of();
+        }
+        retrieved.increment();
+        return retrievers;
+    }
+
+    /**
+     * 判断消息是否需要检索：整条消息都由寒暄用语和预约字段值组成时不需要
+     */
+    static boolean needsRetrieval(String text) {
+        if (text == null) {
+            return false;
+        }
+        String rest = NOISE.matcher(text.toLowerCase()).replaceAll("");
+        if (NAME_ONLY.matcher(rest).matches()) {
+            return false;
+        }
+        while (!rest.isEmpty()) {
+            Matcher chitchat = CHITCHAT.matcher(rest);
+            Matcher slot = SLOT_VALUE.matcher(rest);
+            if (chitchat.lookingAt() && chitchat.end() > 0) {
+                rest = rest.substring(chitchat.end());
+            } else if (slot.lookingAt() && slot.end() > 0) {
+                rest = rest.substring(slot.end());
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取路由统计信息
+     *
+     * @return 检索与跳过的消息数及跳过比例
+     */
+    public Map<String, Object> getStats() {
+        long retrievedCount = retrieved.sum();
+        long skippedCount = skipped.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("retrieved", retrievedCount);
+        stats.put("skipped", skippedCount);
+        stats.put("skipRatio", retrievedCount + skippedCount == 0 ? 0.0
+                : (double) skippedCount / (retrievedCount + skippedCount));
+        return stats;
+    }
+}
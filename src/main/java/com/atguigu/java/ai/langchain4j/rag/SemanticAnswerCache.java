@@ -0,0 +1,331 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import com.atguigu.java.ai.langchain4j.memory.TokenBudgetChatMemory;
+import com.atguigu.java.ai.langchain4j.memory.TurnCompactor;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.memory.chat.ChatMemoryProvider;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * 语义回答缓存
+ * 对问题向量化后查找相似度超过阈值的历史问题，命中时按小段回放缓存的回答，不再调用大模型；
+ * 只缓存未调用工具、不含个人信息、不依赖上文且不涉及相对时间的问答。知识库内容变化（版本号变化）后全部失效
+ */
+@Component
+public class SemanticAnswerCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SemanticAnswerCache.class);
+
+    // 身份证号、手机号、日期及预约相关的问题因人而异，不缓存
+    private static final Pattern PERSONAL = Pattern.compile(
+            "\\d{6,}|\\d{1,4}[-/.年]\\d{1,2}[-/.月]\\d{1,2}|\\d{1,2}月\\d{1,2}[日号]|我的|我叫|本人|预约|挂号|取消");
+
+    // 指代上文的问题，回答取决于对话历史，不缓存
+    private static final Pattern REFERENTIAL = Pattern.compile(
+            "它|他|她|这个|那个|这里|那里|上面|刚才|之前|前面|然后呢|还有呢");
+
+    // 相对时间的问题，回答取决于提问当天的日期（系统提示词中的 current_date），不缓存
+    private static final Pattern TEMPORAL = Pattern.compile(
+            "今天|今日|今晚|明天|明日|后天|昨天|本周|这周|下周|上周|周末|本月|下个?月|今年|现在|目前|星期[一二三四五六日天]|周[一二三四五六日天]");
+
+    private record Entry(String question, float[] vector, String answer, long expireAt, long latencyMillis) {
+    }
+
+    @Autowired
+    @Qualifier("localEmbeddingModel")
+    private EmbeddingModel embeddingModel;
+
+    @Autowired
+    private KnowledgeBase knowledgeBase;
+
+    @Autowired
+    private ChatMemoryProvider chatMemoryProviderXiaozhi;
+
+    // 是否启用回答缓存
+    @Value("${chat.answer-cache.enabled:true}")
+    private boolean enabled;
+
+    // 命中所需的最小余弦相似度
+    @Value("${chat.answer-cache.min-similarity:0.92}")
+    private double minSimilarity;
+
+    // 缓存条数上限与有效期
+    @Value("${chat.answer-cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${chat.answer-cache.ttl-minutes:1440}")
+    private long ttlMinutes;
+
+    // 超过该长度的问题通常带有具体情况描述，不缓存
+    @Value("${chat.answer-cache.max-question-chars:60}")
+    private int maxQuestionChars;
+
+    // 回放时每段的字数与间隔
+    @Value("${chat.answer-cache.chunk-chars:8}")
+    private int chunkChars;
+
+    @Value("${chat.answer-cache.chunk-delay-ms:30}")
+    private long chunkDelayMs;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    // entries 的只读快照，查找时在锁外扫描，写入或清空缓存时在锁内重建
+    private volatile List<Entry> snapshot = List.of();
+    // 缓存内容对应的知识库版本，由 entries 的锁保护
+    private long knowledgeVersion = -1;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder savedMillis = new LongAdder();
+
+    /**
+     * 带缓存的对话
+     *
+     * @param memoryId 会话记忆ID
+     * @param question 用户问题
+     * @param generate 未命中时调用大模型生成回答
+     * @return 回答流
+     */
+    public Flux<String> chat(Long memoryId, String question, Supplier<Flux<String>> generate) {
+        if (!enabled || !isCacheable(question)) {
+            bypassed.increment();
+            return generate.get();
+        }
+
+        float[] vector;
+        try {
+            // 与本地知识库使用同一向量模型，检索时对同一问题向量化会命中向量缓存
+            vector = normalize(embeddingModel.embed(question.strip()).content().vector());
+        } catch (RuntimeException e) {
+            logger.warn("问题向量化失败，跳过回答缓存", e);
+            bypassed.increment();
+            return generate.get();
+        }
+
+        Entry hit = lookup(vector);
+        if (hit != null) {
+            hits.increment();
+            logger.debug("回答缓存命中，会话ID: {}，问题: {}，缓存问题: {}", memoryId, question, hit.question());
+            return replay(memoryId, question, hit);
+        }
+
+        misses.increment();
+        long version = knowledgeBase.getVersion();
+        long start = System.currentTimeMillis();
+        StringBuilder answer = new StringBuilder();
+        return generate.get()
+                .doOnNext(answer::append)
+                .doOnComplete(() -> offer(memoryId, question, vector, answer.toString(), version,
+                        System.currentTimeMillis() - start));
+    }
+
+    private boolean isCacheable(String question) {
+        String text = question.strip();
+        return !text.isEmpty()
+                && text.length() <= maxQuestionChars
+                && !PERSONAL.matcher(text).find()
+                && !REFERENTIAL.matcher(text).find()
+                && !TEMPORAL.matcher(text).find();
+    }
+
+    private Entry lookup(float[] vector) {
+        List<Entry> candidates;
+        synchronized (entries) {
+            checkKnowledgeVersion();
+            candidates = snapshot;
+        }
+
+        long now = System.currentTimeMillis();
+        Entry best = null;
+        double bestSimilarity = minSimilarity;
+        for (Entry entry : candidates) {
+            // 过期条目在下次写入时清理
+            if (entry.expireAt() < now) {
+                continue;
+            }
+            double similarity = dot(vector, entry.vector());
+            if (similarity >= bestSimilarity) {
+                best = entry;
+                bestSimilarity = similarity;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        synchronized (entries) {
+            // 刷新访问顺序；扫描期间条目被淘汰或缓存已清空时视为未命中
+            return entries.get(best.question()) == best ? best : null;
+        }
+    }
+
+    /**
+     * 回答生成完成后检查本轮对话，未调用工具时写入缓存
+     */
+    private void offer(Long memoryId, String question, float[] vector, String answer, long version, long latencyMillis) {
+        if (answer.isBlank()) {
+            return;
+        }
+        if (!isToolFreeTurn(chatMemoryProviderXiaozhi.get(memoryId).messages(), question)) {
+            rejected.increment();
+            return;
+        }
+        synchronized (entries) {
+            checkKnowledgeVersion();
+            if (version != knowledgeVersion) {
+                // 生成期间知识库已更新，回答可能过时
+                return;
+            }
+            String key = question.strip();
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> entry.expireAt() < now);
+            entries.put(key, new Entry(key, vector, answer, now + ttlMinutes * 60_000, latencyMillis));
+            while (entries.size() > maxEntries) {
+                entries.remove(entries.keySet().iterator().next());
+            }
+            snapshot = List.copyOf(entries.values());
+        }
+        stored.increment();
+    }
+
+    /**
+     * 判断会话最后一轮是否为对该问题的、未调用工具的完整问答
+     */
+    private static boolean isToolFreeTurn(List<ChatMessage> messages, String question) {
+        int userIndex = messages.size() - 1;
+        while (userIndex >= 0 && !(messages.get(userIndex) instanceof UserMessage)) {
+            userIndex--;
+        }
+        if (userIndex < 0 || !(messages.get(messages.size() - 1) instanceof AiMessage answer)) {
+            return false;
+        }
+        UserMessage userMessage = (UserMessage) messages.get(userIndex);
+        if (!userMessage.hasSingleText() || !userMessage.singleText().strip().startsWith(question.strip())) {
+            // 期间同一会话又有新的提问
+            return false;
+        }
+        for (ChatMessage message : messages.subList(userIndex + 1, messages.size())) {
+            if (message instanceof ToolExecutionResultMessage
+                    || message instanceof AiMessage aiMessage && aiMessage.hasToolExecutionRequests()) {
+                return false;
+            }
+        }
+        return answer.text() != null && !answer.text().contains(TurnCompactor.TOOL_OUTCOME_MARKER);
+    }
+
+    /**
+     * 按小段回放缓存的回答，完成后把本轮问答写入会话记忆
+     */
+    private Flux<String> replay(Long memoryId, String question, Entry entry) {
+        List<String> chunks = chunk(entry.answer());
+        long start = System.currentTimeMillis();
+        return Flux.fromIterable(chunks)
+                .delayElements(Duration.ofMillis(chunkDelayMs))
+                .doOnComplete(() -> {
+                    // 与对话服务持有的记忆实例共用同一会话锁，一问一答在一次加锁中写入
+                    ChatMemory memory = chatMemoryProviderXiaozhi.get(memoryId);
+                    List<ChatMessage> turn = List.of(UserMessage.from(question), AiMessage.from(entry.answer()));
+                    if (memory instanceof TokenBudgetChatMemory budgetMemory) {
+                        budgetMemory.addAll(turn);
+                    } else {
+                        turn.forEach(memory::add);
+                    }
+                    savedMillis.add(Math.max(0, entry.latencyMillis() - (System.currentTimeMillis() - start)));
+                });
+    }
+
+    private List<String> chunk(String answer) {
+        List<String> chunks = new ArrayList<>();
+        int[] codePoints = answer.codePoints().toArray();
+        for (int from = 0; from < codePoints.length; from += chunkChars) {
+            chunks.add(new String(codePoints, from, Math.min(chunkChars, codePoints.length - from)));
+        }
+        return chunks;
+    }
+
+    /**
+     * 知识库版本变化时清空缓存，调用方需持有 entries 的锁
+     */
+    private void checkKnowledgeVersion() {
+        long current = knowledgeBase.getVersion();
+        if (current != knowledgeVersion) {
+            if (!entries.isEmpty()) {
+                invalidations.increment();
+                logger.info("知识库已更新，清空回答缓存 {} 条", entries.size());
+            }
+            entries.clear();
+            snapshot = List.of();
+            knowledgeVersion = current;
+        }
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = norm == 0 ? 0 : (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 获取回答缓存统计信息
+     *
+     * @return 命中、未命中、跳过（不可缓存）、写入、因调用工具未写入、失效次数、命中率、节省的大模型耗时及条目数
+     */
+    public Map<String, Object> getStats() {
+        long hit = hits.sum();
+        long miss = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("hits", hit);
+        stats.put("misses", miss);
+        stats.put("bypassed", bypassed.sum());
+        stats.put("stored", stored.sum());
+        stats.put("rejectedToolTurns", rejected.sum());
+        stats.put("invalidations", invalidations.sum());
+        stats.put("hitRatio", hit + miss == 0 ? 0.0 : (double) hit / (hit + miss));
+        stats.put("savedLlmMillis", savedMillis.sum());
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+        }
+        return stats;
+    }
+}
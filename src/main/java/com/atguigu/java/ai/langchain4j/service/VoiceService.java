@@ -12,6 +12,7 @@ public interface VoiceService {
 
     /**
      * 流式文本转语音
+     * 与 textToSpeech 相同，合成前去掉括号等不宜朗读的符号
      * @param text 输入文本
      * @param audioConsumer 音频数据消费者
      * @param onComplete 完成回调
@@ -21,6 +22,7 @@ public interface VoiceService {
 
     /**
      * 获取 NLS 客户端
+     * Token 轮换后返回的客户端可能被关闭，长时间持有请改用 NlsClientRegistry#acquire()
      * @return NlsClient 实例
      * @throws VoiceServiceException 语音服务异常
      */
@@ -8,78 +8,296 @@ import com.alibaba.nls.client.protocol.tts.SpeechSynthesizerListener;
 import com.alibaba.nls.client.protocol.tts.SpeechSynthesizerResponse;
 import com.atguigu.java.ai.langchain4j.exception.VoiceServiceException;
 import com.atguigu.java.ai.langchain4j.service.VoiceService;
-import com.atguigu.java.ai.langchain4j.utils.AliyunTokenUtil;
+import com.atguigu.java.ai.langchain4j.voice.NlsClientRegistry;
+import com.atguigu.java.ai.langchain4j.voice.SentenceSplitter;
+import com.atguigu.java.ai.langchain4j.voice.TtsAudioCache;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 /**
  * 语音服务实现类，提供文本转语音功能的具体实现
+ * 合成结果按文本和合成参数缓存，重复的问候语、提示语和常见回答不再远程合成；
+ * 长文本按句切分后并行合成，再按原顺序拼接为一条连续音频
  */
 @Service
 public class VoiceServiceImpl implements VoiceService {
 
     private static final Logger logger = LoggerFactory.getLogger(VoiceServiceImpl.class);
 
+    // 合成参数，同时参与缓存键计算
+    private static final String VOICE = "xiaoyun";
+    private static final int SPEECH_RATE = 150;
+    private static final String FORMAT = "mp3";
+    private static final int SAMPLE_RATE = 16000;
+
+    @Autowired
+    private NlsClientRegistry nlsClientRegistry;
+
     @Autowired
-    private AliyunTokenUtil aliyunTokenUtil;
+    private TtsAudioCache ttsAudioCache;
 
     @Value("${aliyun.tts.appKey}")
     private String appKey;
 
-    private NlsClient nlsClient;
+    // 启动后预先合成并缓存的固定话术，逗号分隔
+    @Value("${voice.tts.cache.prewarm-phrases:}")
+    private String[] prewarmPhrases;
+
+    // 超过该长度的文本拆分为多段并行合成
+    @Value("${voice.tts.chunk.max-length:300}")
+    private int maxChunkLength;
+
+    // 单个请求同时合成的分段数上限
+    @Value("${voice.tts.chunk.parallelism:4}")
+    private int chunkParallelism;
+
+    // 全部请求共享的分段合成线程数
+    @Value("${voice.tts.chunk.pool-size:16}")
+    private int chunkPoolSize;
+
+    // 分段合成的排队上限，队列满时由发起请求的线程自己合成该段，请求越多单个请求越慢，不再无限堆积
+    @Value("${voice.tts.chunk.max-queued:64}")
+    private int chunkMaxQueued;
+
+    private ExecutorService chunkExecutor;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger index = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(chunkPoolSize, chunkPoolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, chunkMaxQueued)), r -> {
+                    Thread thread = new Thread(r, "tts-chunk-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (task, pool) -> {
+                    // 关闭后不能再由调用线程执行，否则任务被丢弃，等待结果的调用方会一直阻塞
+                    if (pool.isShutdown()) {
+                        throw new RejectedExecutionException("分段语音合成线程池已关闭");
+                    }
+                    task.run();
+                });
+        executor.allowCoreThreadTimeOut(true);
+        chunkExecutor = executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (chunkExecutor != null) {
+            chunkExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 应用启动完成后在后台预热缓存，不阻塞启动
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarmCache() {
+        if (prewarmPhrases == null || prewarmPhrases.length == 0) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            for (String phrase : prewarmPhrases) {
+                try {
+                    textToSpeech(phrase);
+                } catch (Exception e) {
+                    logger.warn("TTS缓存预热失败: {}", phrase, e);
+                }
+            }
+            logger.info("TTS缓存预热完成，共 {} 条", prewarmPhrases.length);
+        }, "tts-cache-prewarm");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 按统一参数配置合成器
+     */
+    private void configure(SpeechSynthesizer synthesizer, String text) {
+        synthesizer.setAppKey(appKey);
+        synthesizer.setFormat(OutputFormatEnum.MP3); // Web端建议用MP3
+        synthesizer.setSampleRate(SampleRateEnum.SAMPLE_RATE_16K);
+        synthesizer.setSpeechRate(SPEECH_RATE);
+        synthesizer.setVoice(VOICE);
+        synthesizer.setText(text);
+    }
+
+    /**
+     * 合成前的文本清洗：括号会被逐个读出，替换为空格
+     * 整段合成与流式合成都先经过这里，缓存键也基于清洗后的文本
+     *
+     * @return 清洗后的文本，可能为空字符串
+     */
+    private static String cleanForSpeech(String text) {
+        return text.replaceAll("[\\[\\]{}()]", " ").trim();
+    }
+
+    /**
+     * @param text 清洗后的文本（见 cleanForSpeech），两种合成方式对同一句话得到同一个键
+     */
+    private static String cacheKey(String text) {
+        return TtsAudioCache.key(text, VOICE, SPEECH_RATE, FORMAT, SAMPLE_RATE);
+    }
 
     /**
-     * 获取 NlsClient
+     * 分段并行合成并按原顺序输出
+     * 采用滑动窗口：正在合成的分段不超过 chunkParallelism 个，第 i 段输出后才提交第 i + 窗口 段，
+     * 因此总耗时接近最慢的几段而不是所有分段之和，内存中也只保留窗口内的音频。
+     * 指定 firstChunk 时第一段交给它在调用线程中流式合成（边合成边推送），只有其后的分段整段合成并缓冲。
+     * 分段来自清洗后的文本，每段合成时再经过同样的清洗（见 cleanForSpeech）
+     *
+     * @param chunks        按顺序排列的文本分段
+     * @param firstChunk    流式处理第一段，为 null 时第一段也整段合成
+     * @param audioConsumer 按顺序接收其余每段完整音频
      */
-    private synchronized NlsClient getClient() throws Exception {
+    private void synthesizeInOrder(List<String> chunks, Consumer<String> firstChunk, Consumer<byte[]> audioConsumer) {
+        int window = Math.max(1, chunkParallelism);
+        int first = firstChunk != null ? 1 : 0;
+        // futures 的第 j 个对应第 first + j 段
+        List<Future<byte[]>> futures = new ArrayList<>(chunks.size());
         try {
-            String token = aliyunTokenUtil.getToken();
-            if (token == null || token.isEmpty()) {
-                throw new RuntimeException("阿里云语音服务Token获取失败");
+            if (firstChunk != null) {
+                submitChunks(chunks, futures, first, window);
+                firstChunk.accept(chunks.get(0));
             }
-            if (this.nlsClient == null) {
-                this.nlsClient = new NlsClient(token);
+            for (int i = first; i < chunks.size(); i++) {
+                submitChunks(chunks, futures, first, i + window);
+                byte[] audio = futures.get(i - first).get();
+                if (audio.length > 0) {
+                    audioConsumer.accept(audio);
+                }
             }
-            return this.nlsClient;
-        } catch (Exception e) {
-            logger.error("获取NLS客户端失败", e);
-            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VoiceServiceException("分段语音合成被中断", e);
+        } catch (ExecutionException e) {
+            throw new VoiceServiceException("分段语音合成失败", e.getCause());
+        } catch (RejectedExecutionException e) {
+            throw new VoiceServiceException("分段语音合成被拒绝", e);
+        } finally {
+            // 出错或中断时取消尚未完成的分段
+            for (Future<byte[]> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 提交分段直到第 limit 段之前（不含）
+     */
+    private void submitChunks(List<String> chunks, List<Future<byte[]>> futures, int first, int limit) {
+        while (first + futures.size() < Math.min(chunks.size(), limit)) {
+            String chunk = chunks.get(first + futures.size());
+            futures.add(chunkExecutor.submit(() -> textToSpeech(chunk)));
         }
     }
 
     @Override
-    public void streamTextToSpeech(String text,
+    public void streamTextToSpeech(String rawText,
                                    Consumer<ByteBuffer> audioConsumer,
                                    Runnable onComplete) throws VoiceServiceException {
-        if (text == null || text.trim().isEmpty()) {
+        String text = rawText == null ? "" : cleanForSpeech(rawText);
+        if (text.isEmpty()) {
             logger.warn("输入文本为空，跳过语音合成");
             if (onComplete != null) onComplete.run();
             return;
         }
-        
+
+        if (text.length() > maxChunkLength) {
+            // 长文本拆分后并行合成，按顺序推送；第一段流式合成，首包延迟与短文本相同
+            List<String> chunks = SentenceSplitter.splitForSynthesis(text, maxChunkLength);
+            logger.info("长文本分段合成，长度: {}，分段数: {}", text.length(), chunks.size());
+            try {
+                synthesizeInOrder(chunks,
+                        chunk -> streamTextToSpeech(chunk, audioConsumer, null),
+                        audio -> audioConsumer.accept(ByteBuffer.wrap(audio).asReadOnlyBuffer()));
+            } finally {
+                if (onComplete != null) onComplete.run();
+            }
+            return;
+        }
+
+        // 命中缓存时一次性推送完整音频
+        String key = cacheKey(text);
+        byte[] cached = ttsAudioCache.get(key);
+        if (cached != null) {
+            audioConsumer.accept(ByteBuffer.wrap(cached).asReadOnlyBuffer());
+            if (onComplete != null) onComplete.run();
+            return;
+        }
+
+        // 边推送边留存一份副本，合成成功后写入缓存；副本超过缓存的单条上限时不再留存
+        long maxCopyBytes = ttsAudioCache.getMaxEntryBytes();
+        AtomicReference<ByteArrayOutputStream> copy = new AtomicReference<>(new ByteArrayOutputStream());
+        AtomicBoolean succeeded = new AtomicBoolean(false);
+        // 推送失败（如客户端断开）时记录异常并中止合成
+        AtomicReference<RuntimeException> aborted = new AtomicReference<>();
+        AtomicReference<SpeechSynthesizer> synthesizerRef = new AtomicReference<>();
+        NlsClientRegistry.Lease lease = null;
         SpeechSynthesizer synthesizer = null;
         try {
-            synthesizer = new SpeechSynthesizer(getClient(), new SpeechSynthesizerListener() {
+            lease = nlsClientRegistry.acquire();
+            synthesizer = new SpeechSynthesizer(lease.client(), new SpeechSynthesizerListener() {
                 @Override
                 public void onMessage(ByteBuffer message) {
+                    if (aborted.get() != null) {
+                        return;
+                    }
+                    ByteArrayOutputStream buffer = copy.get();
+                    if (buffer != null) {
+                        if (buffer.size() + message.remaining() > maxCopyBytes) {
+                            copy.set(null);
+                        } else {
+                            ByteBuffer view = message.duplicate();
+                            byte[] bytes = new byte[view.remaining()];
+                            view.get(bytes);
+                            buffer.write(bytes, 0, bytes.length);
+                        }
+                    }
                     try {
                         audioConsumer.accept(message); // 将音频片断实时推给 WebSocket
-                    } catch (Exception e) {
-                        logger.error("处理音频数据失败", e);
+                    } catch (RuntimeException e) {
+                        logger.warn("推送音频数据失败，中止语音合成: {}", e.getMessage());
+                        aborted.set(e);
+                        copy.set(null);
+                        SpeechSynthesizer current = synthesizerRef.get();
+                        if (current != null) {
+                            // 关闭连接后 waitForComplete 立即返回
+                            try {
+                                current.close();
+                            } catch (Exception closeError) {
+                                logger.error("关闭语音合成器失败", closeError);
+                            }
+                        }
                     }
                 }
                 @Override
                 public void onComplete(SpeechSynthesizerResponse response) {
                     logger.info("语音合成任务完成: {}", response.getTaskId());
+                    succeeded.set(true);
                     if (onComplete != null) onComplete.run(); // 播报结束回调
                 }
                 @Override
@@ -88,12 +306,16 @@ public class VoiceServiceImpl implements VoiceService {
                     if (onComplete != null) onComplete.run(); // 失败也要解锁，防止死锁
                 }
             });
+            synthesizerRef.set(synthesizer);
 
-            synthesizer.setAppKey(appKey);
-            synthesizer.setFormat(OutputFormatEnum.MP3);
-            synthesizer.setText(text);
+            // 与整段合成保持一致的音色和语速，逐句拼接播放时听感一致
+            configure(synthesizer, text);
             synthesizer.start();
             synthesizer.waitForComplete(); // 保持线程直到合成完毕
+            ByteArrayOutputStream buffer = copy.get();
+            if (succeeded.get() && aborted.get() == null && buffer != null) {
+                ttsAudioCache.put(key, buffer.toByteArray());
+            }
         } catch (VoiceServiceException e) {
             logger.error("语音合成过程中发生语音服务异常", e);
             throw e;
@@ -108,14 +330,21 @@ public class VoiceServiceImpl implements VoiceService {
                     logger.error("关闭语音合成器失败", e);
                 }
             }
+            if (lease != null) {
+                lease.close();
+            }
+        }
+        if (aborted.get() != null) {
+            // 把推送失败抛给调用方，由调用方结束响应
+            throw aborted.get();
         }
     }
 
     @Override
     public NlsClient getNlsClient() throws VoiceServiceException {
         try {
-            // 确保 client 已初始化
-            return getClient();
+            // 共享客户端由注册表统一管理，不再在此处创建
+            return nlsClientRegistry.getClient();
         } catch (VoiceServiceException e) {
             logger.error("获取NLS客户端时发生语音服务异常", e);
             throw e;
@@ -133,13 +362,32 @@ public class VoiceServiceImpl implements VoiceService {
         }
         
         // 1. 文本清洗（借鉴你提供的逻辑）
-        String cleanText = text.replaceAll("[\\[\\]{}()]", " ").trim();
+        String cleanText = cleanForSpeech(text);
         if (cleanText.isEmpty()) {
             logger.warn("清洗后的文本为空，返回空音频");
             return new byte[0];
         }
 
+        if (cleanText.length() > maxChunkLength) {
+            // 长文本拆分后并行合成，拼接为一段完整音频
+            List<String> chunks = SentenceSplitter.splitForSynthesis(cleanText, maxChunkLength);
+            logger.info("长文本分段合成，长度: {}，分段数: {}", cleanText.length(), chunks.size());
+            ByteArrayOutputStream joined = new ByteArrayOutputStream();
+            synthesizeInOrder(chunks, null, joined::writeBytes);
+            return joined.toByteArray();
+        }
+
+        String key = cacheKey(cleanText);
+        byte[] cached = ttsAudioCache.get(key);
+        if (cached != null) {
+            logger.debug("TTS缓存命中，大小: {} 字节", cached.length);
+            // 返回副本，调用方修改数组不会影响缓存内容
+            return cached.clone();
+        }
+
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        AtomicBoolean succeeded = new AtomicBoolean(false);
+        NlsClientRegistry.Lease lease = null;
         SpeechSynthesizer synthesizer = null;
 
         // 2. 创建监听器
@@ -158,6 +406,7 @@ public class VoiceServiceImpl implements VoiceService {
             @Override
             public void onComplete(SpeechSynthesizerResponse response) {
                 logger.info("TTS任务完成: {}", response.getTaskId());
+                succeeded.set(true);
             }
 
             @Override
@@ -168,13 +417,9 @@ public class VoiceServiceImpl implements VoiceService {
 
         try {
             // 3. 配置合成器
-            synthesizer = new SpeechSynthesizer(getClient(), listener);
-            synthesizer.setAppKey(appKey);
-            synthesizer.setFormat(OutputFormatEnum.MP3); // Web端建议用MP3
-            synthesizer.setSampleRate(SampleRateEnum.SAMPLE_RATE_16K);
-            synthesizer.setText(cleanText);
-            synthesizer.setSpeechRate(150);
-            synthesizer.setVoice("xiaoyun");
+            lease = nlsClientRegistry.acquire();
+            synthesizer = new SpeechSynthesizer(lease.client(), listener);
+            configure(synthesizer, cleanText);
 
             synthesizer.start();
             // 4. 【核心点】调用你之前成功的同步方法，确保主线程等到数据传完
@@ -193,17 +438,16 @@ public class VoiceServiceImpl implements VoiceService {
                     logger.error("关闭语音合成器失败", e);
                 }
             }
+            if (lease != null) {
+                lease.close();
+            }
         }
 
         byte[] result = baos.toByteArray();
         logger.info("音频生成完毕，大小: {} 字节", result.length); // 这里必须看到大于0的数字
-        return result;
-    }
-
-    @PreDestroy
-    public void shutdown() {
-        if (nlsClient != null) {
-            nlsClient.shutdown();
+        if (succeeded.get()) {
+            ttsAudioCache.put(key, result.clone());
         }
+        return result;
     }
 }
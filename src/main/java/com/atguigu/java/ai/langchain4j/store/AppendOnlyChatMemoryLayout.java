@@ -0,0 +1,242 @@
+package com.atguigu.java.ai.langchain4j.store;
+
+import com.atguigu.java.ai.langchain4j.bean.ChatMessageEntry;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.SystemMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * 按条追加布局
+ * 每条消息一个 chat_message_entries 文档，按 (memoryId, seq) 索引；
+ * 保存时与已落库的消息比对，只插入新增消息，窗口淘汰掉的旧消息按 seq 区间删除，
+ * 写入量与本轮新增消息数成正比而不是与会话长度成正比，保留下来的消息序号不变，可作为历史翻页的游标。
+ * 系统消息（摘要附在其末尾，每次摘要更新都会改写）不进入消息序列，单独保存在序号为 -1 的文档中。
+ * 尚未迁移的会话读取时回落到原有的整会话文档，首次保存后迁移为按条存储
+ */
+class AppendOnlyChatMemoryLayout implements ChatMemoryLayout {
+
+    private static final Logger logger = LoggerFactory.getLogger(AppendOnlyChatMemoryLayout.class);
+
+    // 系统消息文档的序号，排在消息序列之前
+    private static final long SYSTEM_SEQ = -1;
+
+    private final MongoTemplate mongoTemplate;
+    private final ChatMessageFormat format;
+    private final DocumentChatMemoryLayout legacyLayout;
+
+    AppendOnlyChatMemoryLayout(MongoTemplate mongoTemplate, ChatMessageFormat format,
+                               DocumentChatMemoryLayout legacyLayout) {
+        this.mongoTemplate = mongoTemplate;
+        this.format = format;
+        this.legacyLayout = legacyLayout;
+    }
+
+    void ensureIndexes() {
+        mongoTemplate.indexOps(ChatMessageEntry.class).ensureIndex(new Index()
+                .on("memoryId", Sort.Direction.ASC)
+                .on("seq", Sort.Direction.ASC)
+                .unique()
+                .named("memoryId_seq"));
+    }
+
+    @Override
+    public List<ChatMessage> load(Object memoryId) {
+        List<ChatMessageEntry> entries = mongoTemplate.find(entriesOf(memoryId), ChatMessageEntry.class);
+        if (entries.isEmpty()) {
+            return legacyLayout.load(memoryId);
+        }
+        List<ChatMessage> messages = new ArrayList<>(entries.size());
+        for (ChatMessageEntry entry : entries) {
+            messages.add(decode(entry));
+        }
+        logger.debug("成功获取记忆ID为 {} 的聊天记录，共 {} 条", memoryId, messages.size());
+        return messages;
+    }
+
+    /**
+     * 按 (memoryId, seq) 索引做范围查询，只读取这一页的消息；多取一条用于判断翻页方向上是否还有消息，
+     * 反方向是否还有消息按游标做一次索引上的存在性查询。系统消息不在历史记录中返回
+     */
+    @Override
+    public ChatHistoryPage loadPage(Object memoryId, Long before, Long after, int limit) {
+        Criteria criteria = Criteria.where("memoryId").is(memoryId);
+        Sort.Direction direction;
+        if (after != null) {
+            criteria = criteria.and("seq").gt(Math.max(after, SYSTEM_SEQ));
+            direction = Sort.Direction.ASC;
+        } else {
+            Criteria seq = criteria.and("seq").gt(SYSTEM_SEQ);
+            if (before != null) {
+                seq.lt(before);
+            }
+            direction = Sort.Direction.DESC;
+        }
+        Query query = new Query(criteria).with(Sort.by(direction, "seq")).limit(limit + 1);
+        List<ChatMessageEntry> entries = mongoTemplate.find(query, ChatMessageEntry.class);
+
+        if (entries.isEmpty() && before == null && after == null
+                && !mongoTemplate.exists(new Query(Criteria.where("memoryId").is(memoryId)), ChatMessageEntry.class)) {
+            // 尚未迁移的会话，只能返回最近的一页
+            return legacyLayout.loadPage(memoryId, null, null, limit);
+        }
+
+        boolean hasMore = entries.size() > limit;
+        if (hasMore) {
+            entries = entries.subList(0, limit);
+        }
+        List<ChatHistoryPage.Entry> page = new ArrayList<>(entries.size());
+        for (ChatMessageEntry entry : entries) {
+            page.add(new ChatHistoryPage.Entry(entry.getSeq(), decode(entry)));
+        }
+        if (direction == Sort.Direction.DESC) {
+            Collections.reverse(page);
+            boolean hasMoreAfter = before != null && mongoTemplate.exists(new Query(Criteria.where("memoryId").is(memoryId)
+                    .and("seq").gte(Math.max(before, SYSTEM_SEQ + 1))), ChatMessageEntry.class);
+            return new ChatHistoryPage(page, hasMore, hasMoreAfter, true);
+        }
+        boolean hasMoreBefore = mongoTemplate.exists(new Query(Criteria.where("memoryId").is(memoryId)
+                .and("seq").gt(SYSTEM_SEQ).lte(after)), ChatMessageEntry.class);
+        return new ChatHistoryPage(page, hasMoreBefore, hasMore, true);
+    }
+
+    /**
+     * 保存会话
+     * 已落库序列的某一段与新列表的开头对齐：对齐之前的是窗口淘汰掉的旧消息，对齐之后的是被改写的消息
+     * （如轮次压缩后的最后一轮），新列表中对齐部分之后的消息按新序号追加。
+     * 先插入再删除，任一步失败都不会丢失已落库的消息，下次保存时按同样的比对收敛
+     */
+    @Override
+    public void save(Object memoryId, List<ChatMessage> messages) {
+        // 只取序号和摘要，比对时不需要读取消息内容
+        Query existingQuery = entriesOf(memoryId);
+        existingQuery.fields().include("seq").include("digest");
+        List<ChatMessageEntry> stored = mongoTemplate.find(existingQuery, ChatMessageEntry.class);
+        ChatMessageEntry systemEntry = null;
+        List<ChatMessageEntry> existing = new ArrayList<>(stored.size());
+        for (ChatMessageEntry entry : stored) {
+            if (entry.getSeq() == SYSTEM_SEQ) {
+                systemEntry = entry;
+            } else {
+                existing.add(entry);
+            }
+        }
+
+        int first = !messages.isEmpty() && messages.get(0) instanceof SystemMessage ? 1 : 0;
+        // 摘要基于编码结果计算，旧格式的条目摘要对不上，会在这次保存中按新格式重写
+        List<ChatMessage> sequence = messages.subList(first, messages.size());
+        List<byte[]> encoded = new ArrayList<>(sequence.size());
+        List<String> digests = new ArrayList<>(sequence.size());
+        for (ChatMessage message : sequence) {
+            byte[] data = format.pack(message);
+            encoded.add(data);
+            digests.add(digest(data));
+        }
+
+        // 找出新列表开头在已落库序列中的位置，相同消息出现多次时取连续匹配最长的位置
+        int offset = existing.size();
+        int matched = 0;
+        for (int i = 0; i < existing.size() && !digests.isEmpty(); i++) {
+            int run = 0;
+            while (i + run < existing.size() && run < digests.size()
+                    && digests.get(run).equals(existing.get(i + run).getDigest())) {
+                run++;
+            }
+            if (run > matched) {
+                offset = i;
+                matched = run;
+            }
+        }
+
+        long nextSeq = existing.isEmpty() ? 0 : existing.get(existing.size() - 1).getSeq() + 1;
+        List<ChatMessageEntry> appended = new ArrayList<>();
+        for (int i = matched; i < sequence.size(); i++) {
+            appended.add(new ChatMessageEntry(null, memoryId, nextSeq++, digests.get(i), null, encoded.get(i)));
+        }
+        if (!appended.isEmpty()) {
+            mongoTemplate.insert(appended, ChatMessageEntry.class);
+        }
+        saveSystemMessage(memoryId, first == 1 ? messages.get(0) : null, systemEntry);
+
+        // 对齐之前淘汰的与对齐之后被改写的各是一个连续区间
+        int removed = 0;
+        if (offset > 0) {
+            removed += removeRange(memoryId, existing.get(0).getSeq(), existing.get(offset - 1).getSeq());
+        }
+        if (offset + matched < existing.size()) {
+            removed += removeRange(memoryId, existing.get(offset + matched).getSeq(),
+                    existing.get(existing.size() - 1).getSeq());
+        }
+
+        if (stored.isEmpty()) {
+            // 首次按条保存，清理原有的整会话文档
+            legacyLayout.delete(memoryId);
+        }
+        logger.debug("成功更新记忆ID为 {} 的聊天记录，新增 {} 条，删除 {} 条", memoryId, appended.size(), removed);
+    }
+
+    /**
+     * 系统消息内容变化时覆盖写入，不再存在时删除
+     */
+    private void saveSystemMessage(Object memoryId, ChatMessage message, ChatMessageEntry existing) {
+        Query query = new Query(Criteria.where("memoryId").is(memoryId).and("seq").is(SYSTEM_SEQ));
+        if (message == null) {
+            if (existing != null) {
+                mongoTemplate.remove(query, ChatMessageEntry.class);
+            }
+            return;
+        }
+        byte[] data = format.pack(message);
+        String digest = digest(data);
+        if (existing == null || !digest.equals(existing.getDigest())) {
+            mongoTemplate.upsert(query, new Update().set("digest", digest).set("data", data).unset("content"),
+                    ChatMessageEntry.class);
+        }
+    }
+
+    @Override
+    public long delete(Object memoryId) {
+        long deleted = mongoTemplate.remove(new Query(Criteria.where("memoryId").is(memoryId)),
+                ChatMessageEntry.class).getDeletedCount();
+        return deleted + legacyLayout.delete(memoryId);
+    }
+
+    private int removeRange(Object memoryId, long from, long to) {
+        return (int) mongoTemplate.remove(new Query(Criteria.where("memoryId").is(memoryId)
+                .and("seq").gte(from).lte(to)), ChatMessageEntry.class).getDeletedCount();
+    }
+
+    private ChatMessage decode(ChatMessageEntry entry) {
+        return entry.getData() != null
+                ? format.unpack(entry.getData())
+                : ChatMessageDeserializer.messageFromJson(entry.getContent());
+    }
+
+    private static Query entriesOf(Object memoryId) {
+        return new Query(Criteria.where("memoryId").is(memoryId))
+                .with(Sort.by(Sort.Direction.ASC, "seq"));
+    }
+
+    private static String digest(byte[] data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+}
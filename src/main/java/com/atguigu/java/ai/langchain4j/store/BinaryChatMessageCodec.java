@@ -0,0 +1,151 @@
+package com.atguigu.java.ai.langchain4j.store;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 紧凑二进制编码
+ * 首字节为消息类型编号，之后依次是各字段；字符串为"变长整数长度 + UTF-8"，长度写 0 表示 null。
+ * 图片等非纯文本的用户消息以及无法识别的消息类型退回json编码，保证任何消息都能无损保存
+ */
+public class BinaryChatMessageCodec implements ChatMessageCodec {
+
+    public static final byte ID = 2;
+
+    private static final byte TYPE_JSON = 0;
+    private static final byte TYPE_SYSTEM = 1;
+    private static final byte TYPE_USER = 2;
+    private static final byte TYPE_AI = 3;
+    private static final byte TYPE_TOOL_RESULT = 4;
+
+    private final JsonChatMessageCodec fallback = new JsonChatMessageCodec();
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(ChatMessage message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        if (message instanceof SystemMessage systemMessage) {
+            out.write(TYPE_SYSTEM);
+            writeString(out, systemMessage.text());
+        } else if (message instanceof UserMessage userMessage && userMessage.hasSingleText()) {
+            out.write(TYPE_USER);
+            writeString(out, userMessage.name());
+            writeString(out, userMessage.singleText());
+        } else if (message instanceof AiMessage aiMessage
+                && (aiMessage.text() != null || aiMessage.hasToolExecutionRequests())) {
+            out.write(TYPE_AI);
+            writeString(out, aiMessage.text());
+            List<ToolExecutionRequest> requests = aiMessage.hasToolExecutionRequests()
+                    ? aiMessage.toolExecutionRequests() : List.of();
+            writeVarInt(out, requests.size());
+            for (ToolExecutionRequest request : requests) {
+                writeString(out, request.id());
+                writeString(out, request.name());
+                writeString(out, request.arguments());
+            }
+        } else if (message instanceof ToolExecutionResultMessage resultMessage) {
+            out.write(TYPE_TOOL_RESULT);
+            writeString(out, resultMessage.id());
+            writeString(out, resultMessage.toolName());
+            writeString(out, resultMessage.text());
+        } else {
+            out.write(TYPE_JSON);
+            out.writeBytes(fallback.encode(message));
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public ChatMessage decode(byte[] data) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        byte type = in.get();
+        switch (type) {
+            case TYPE_SYSTEM:
+                return SystemMessage.from(readString(in));
+            case TYPE_USER: {
+                String name = readString(in);
+                String text = readString(in);
+                return name == null ? UserMessage.from(text) : UserMessage.from(name, text);
+            }
+            case TYPE_AI: {
+                String text = readString(in);
+                int count = readVarInt(in);
+                if (count == 0) {
+                    return AiMessage.from(text);
+                }
+                List<ToolExecutionRequest> requests = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    requests.add(ToolExecutionRequest.builder()
+                            .id(readString(in))
+                            .name(readString(in))
+                            .arguments(readString(in))
+                            .build());
+                }
+                return text == null ? AiMessage.from(requests) : AiMessage.from(text, requests);
+            }
+            case TYPE_TOOL_RESULT:
+                return ToolExecutionResultMessage.from(readString(in), readString(in), readString(in));
+            case TYPE_JSON: {
+                byte[] json = new byte[in.remaining()];
+                in.get(json);
+                return fallback.decode(json);
+            }
+            default:
+                throw new IllegalArgumentException("未知的消息类型编号: " + type);
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.writeBytes(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length - 1, StandardCharsets.UTF_8);
+        in.position(in.position() + length - 1);
+        return value;
+    }
+
+    static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
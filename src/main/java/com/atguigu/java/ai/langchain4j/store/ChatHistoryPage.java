@@ -0,0 +1,39 @@
+package com.atguigu.java.ai.langchain4j.store;
+
+import dev.langchain4j.data.message.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一页聊天历史
+ * 消息按时间正序排列。cursorSupported 为 true 时序号即翻页游标：向前翻页取首条的序号作为 before，
+ * 向后翻页取末条的序号作为 after；为 false 时（整会话布局）序号只是消息在当前列表中的位置，不能用于翻页
+ *
+ * @param entries         本页消息
+ * @param hasMoreBefore   是否还有更早的消息
+ * @param hasMoreAfter    是否还有更新的消息
+ * @param cursorSupported 是否支持按序号游标翻页
+ */
+public record ChatHistoryPage(List<Entry> entries, boolean hasMoreBefore, boolean hasMoreAfter,
+                              boolean cursorSupported) {
+
+    /**
+     * @param seq     消息序号，同一会话内递增
+     * @param message 消息
+     */
+    public record Entry(long seq, ChatMessage message) {
+    }
+
+    /**
+     * 在已加载的完整消息列表上取最近的 limit 条，以下标作为序号，不支持游标翻页
+     */
+    static ChatHistoryPage latest(List<ChatMessage> messages, int limit) {
+        int from = Math.max(messages.size() - limit, 0);
+        List<Entry> entries = new ArrayList<>(messages.size() - from);
+        for (int i = from; i < messages.size(); i++) {
+            entries.add(new Entry(i, messages.get(i)));
+        }
+        return new ChatHistoryPage(entries, from > 0, false, false);
+    }
+}
@@ -0,0 +1,49 @@
+package com.atguigu.java.ai.langchain4j.store;
+
+import dev.langchain4j.data.message.ChatMessage;
+
+import java.util.List;
+
+/**
+ * 聊天记忆在MongoDB中的存储布局
+ * 缓存与延迟写入由 MongoChatMemoryStore 负责，布局只负责一次完整的读、写、删
+ */
+interface ChatMemoryLayout {
+
+    /**
+     * 读取会话的全部消息
+     *
+     * @param memoryId 记忆ID
+     * @return 按顺序排列的消息，不存在时返回空列表
+     */
+    List<ChatMessage> load(Object memoryId);
+
+    /**
+     * 将会话保存为给定的消息列表
+     *
+     * @param memoryId 记忆ID
+     * @param messages 会话当前的完整消息列表
+     */
+    void save(Object memoryId, List<ChatMessage> messages);
+
+    /**
+     * 读取会话的一页消息，before 与 after 都为空时返回最近的 limit 条
+     * 是否支持游标翻页取决于布局，见 ChatHistoryPage#cursorSupported
+     *
+     * @param memoryId 记忆ID
+     * @param before   只取序号小于该值的消息，可为空
+     * @param after    只取序号大于该值的消息，可为空，优先于 before
+     * @param limit    最多返回的条数
+     * @return 按时间正序排列的一页消息
+     * @throws UnsupportedOperationException 布局不支持游标翻页时传入了游标
+     */
+    ChatHistoryPage loadPage(Object memoryId, Long before, Long after, int limit);
+
+    /**
+     * 删除会话的全部消息
+     *
+     * @param memoryId 记忆ID
+     * @return 删除的文档数
+     */
+    long delete(Object memoryId);
+}
@@ -0,0 +1,19 @@
+package com.atguigu.java.ai.langchain4j.store;
+
+import dev.langchain4j.data.message.ChatMessage;
+
+/**
+ * 单条聊天消息的编解码器
+ * 每种编码有固定的编号写在存储数据的头部，切换编码后旧数据仍按原编号解码
+ */
+public interface ChatMessageCodec {
+
+    /**
+     * @return 编码编号，写入后不可再变更
+     */
+    byte id();
+
+    byte[] encode(ChatMessage message);
+
+    ChatMessage decode(byte[] data);
+}
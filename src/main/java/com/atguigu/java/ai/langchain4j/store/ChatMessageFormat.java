@@ -0,0 +1,208 @@
+package com.atguigu.java.ai.langchain4j.store;
+
+import dev.langchain4j.data.message.ChatMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 聊天记忆的持久化格式
+ * 数据头两个字节为"编码编号 + 标志位"，标志位表示正文是否经过Deflate压缩；
+ * 写入始终使用当前配置的编码，读取按头部编号选择编码，因此切换编码后旧数据仍可读取
+ */
+class ChatMessageFormat {
+
+    private static final int FLAG_DEFLATE = 1;
+
+    private final ChatMessageCodec writeCodec;
+    private final Map<Byte, ChatMessageCodec> codecs = new LinkedHashMap<>();
+    private final int compressThreshold;
+
+    private final LongAdder encodedMessages = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder decodedMessages = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    /**
+     * @param writeCodec        写入使用的编码
+     * @param compressThreshold 正文超过该字节数时压缩，小于 0 表示不压缩
+     */
+    ChatMessageFormat(ChatMessageCodec writeCodec, int compressThreshold) {
+        this.writeCodec = writeCodec;
+        this.compressThreshold = compressThreshold;
+        register(new JsonChatMessageCodec());
+        register(new BinaryChatMessageCodec());
+        register(writeCodec);
+    }
+
+    private void register(ChatMessageCodec codec) {
+        codecs.put(codec.id(), codec);
+    }
+
+    String codecName() {
+        return writeCodec.getClass().getSimpleName();
+    }
+
+    /**
+     * @return 是否为json编码且不压缩，此时整会话布局按原有的 content 字段保存，数据格式与旧版本一致
+     */
+    boolean isLegacyJson() {
+        return writeCodec.id() == JsonChatMessageCodec.ID && compressThreshold < 0;
+    }
+
+    /**
+     * 编码单条消息
+     */
+    byte[] pack(ChatMessage message) {
+        long start = System.nanoTime();
+        byte[] packed = frame(writeCodec.encode(message));
+        record(1, packed.length, start);
+        return packed;
+    }
+
+    /**
+     * 编码消息列表，正文为"变长整数条数 + 每条的变长整数长度与内容"
+     */
+    byte[] packAll(List<ChatMessage> messages) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(messages.size() * 128);
+        BinaryChatMessageCodec.writeVarInt(body, messages.size());
+        for (ChatMessage message : messages) {
+            byte[] encoded = writeCodec.encode(message);
+            BinaryChatMessageCodec.writeVarInt(body, encoded.length);
+            body.writeBytes(encoded);
+        }
+        byte[] packed = frame(body.toByteArray());
+        record(messages.size(), packed.length, start);
+        return packed;
+    }
+
+    ChatMessage unpack(byte[] data) {
+        long start = System.nanoTime();
+        ChatMessageCodec codec = codecOf(data);
+        ChatMessage message = codec.decode(body(data));
+        decodedMessages.increment();
+        decodeNanos.add(System.nanoTime() - start);
+        return message;
+    }
+
+    List<ChatMessage> unpackAll(byte[] data) {
+        long start = System.nanoTime();
+        ChatMessageCodec codec = codecOf(data);
+        ByteBuffer in = ByteBuffer.wrap(body(data));
+        int count = BinaryChatMessageCodec.readVarInt(in);
+        List<ChatMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] encoded = new byte[BinaryChatMessageCodec.readVarInt(in)];
+            in.get(encoded);
+            messages.add(codec.decode(encoded));
+        }
+        decodedMessages.add(count);
+        decodeNanos.add(System.nanoTime() - start);
+        return messages;
+    }
+
+    private byte[] frame(byte[] body) {
+        rawBytes.add(body.length);
+        boolean compress = compressThreshold >= 0 && body.length > compressThreshold;
+        byte[] payload = compress ? deflate(body) : body;
+        if (compress && payload.length >= body.length) {
+            // 压缩无收益时保存原文
+            compress = false;
+            payload = body;
+        }
+        byte[] packed = new byte[payload.length + 2];
+        packed[0] = writeCodec.id();
+        packed[1] = (byte) (compress ? FLAG_DEFLATE : 0);
+        System.arraycopy(payload, 0, packed, 2, payload.length);
+        return packed;
+    }
+
+    private ChatMessageCodec codecOf(byte[] data) {
+        ChatMessageCodec codec = codecs.get(data[0]);
+        if (codec == null) {
+            throw new IllegalArgumentException("未知的聊天记忆编码编号: " + data[0]);
+        }
+        return codec;
+    }
+
+    private static byte[] body(byte[] data) {
+        if ((data[1] & FLAG_DEFLATE) != 0) {
+            return inflate(data, 2, data.length - 2);
+        }
+        byte[] body = new byte[data.length - 2];
+        System.arraycopy(data, 2, body, 0, body.length);
+        return body;
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] input, int offset, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input, offset, length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(length * 3);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("聊天记忆压缩数据不完整");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("聊天记忆压缩数据损坏", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void record(int messages, int bytes, long start) {
+        encodedMessages.add(messages);
+        encodedBytes.add(bytes);
+        encodeNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * 编解码统计，切换 chat.memory.codec 前后对比即可评估体积与耗时
+     */
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long encoded = encodedMessages.sum();
+        long decoded = decodedMessages.sum();
+        stats.put("codec", codecName());
+        stats.put("encodedMessages", encoded);
+        stats.put("avgEncodedBytes", encoded == 0 ? 0 : encodedBytes.sum() / encoded);
+        stats.put("compressionRatio", rawBytes.sum() == 0 ? 1.0 : (double) encodedBytes.sum() / rawBytes.sum());
+        stats.put("avgEncodeMicros", encoded == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(encodeNanos.sum() / encoded));
+        stats.put("decodedMessages", decoded);
+        stats.put("avgDecodeMicros", decoded == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(decodeNanos.sum() / decoded));
+        return stats;
+    }
+}
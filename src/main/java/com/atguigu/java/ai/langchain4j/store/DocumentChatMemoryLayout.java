@@ -0,0 +1,101 @@
+package com.atguigu.java.ai.langchain4j.store;
+
+import com.atguigu.java.ai.langchain4j.bean.ChatMessages;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 整会话单文档布局（原有布局）
+ * 每个会话一个 chat_messages 文档，每次写入都覆盖整个列表。json编码且不压缩时与原有格式一致，
+ * 完整消息列表以json保存在 content 字段；否则 data 字段保存编码后的数据，只有 content 字段的旧文档下次写入时转为新格式
+ */
+class DocumentChatMemoryLayout implements ChatMemoryLayout {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentChatMemoryLayout.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final ChatMessageFormat format;
+
+    DocumentChatMemoryLayout(MongoTemplate mongoTemplate, ChatMessageFormat format) {
+        this.mongoTemplate = mongoTemplate;
+        this.format = format;
+    }
+
+    /**
+     * 为 memoryId 建立索引，避免按会话查询时全表扫描
+     */
+    void ensureIndexes() {
+        mongoTemplate.indexOps(ChatMessages.class)
+                .ensureIndex(new Index().on("memoryId", Sort.Direction.ASC).named("memoryId"));
+    }
+
+    @Override
+    public List<ChatMessage> load(Object memoryId) {
+        Criteria criteria = Criteria.where("memoryId").is(memoryId);
+        Query query = new Query(criteria);
+        ChatMessages chatMessages = mongoTemplate.findOne(query, ChatMessages.class);
+
+        if (chatMessages == null) {
+            logger.debug("未找到记忆ID为 {} 的聊天记录", memoryId);
+            return new ArrayList<>();
+        }
+
+        List<ChatMessage> messages = chatMessages.getData() != null
+                ? format.unpackAll(chatMessages.getData())
+                : ChatMessageDeserializer.messagesFromJson(chatMessages.getContent());
+        logger.debug("成功获取记忆ID为 {} 的聊天记录，共 {} 条", memoryId, messages != null ? messages.size() : 0);
+        return messages != null ? messages : new ArrayList<>();
+    }
+
+    /**
+     * 整会话布局不支持游标翻页：消息没有落库的序号，下标会随窗口淘汰和摘要写入而移动，
+     * 用下标做游标会跳过或重复消息。这里只返回最近的 limit 条，且需要读出并解码整个会话；
+     * 需要翻页时使用按条追加布局（chat.memory.layout=append）
+     *
+     * @throws UnsupportedOperationException 传入了 before 或 after 游标
+     */
+    @Override
+    public ChatHistoryPage loadPage(Object memoryId, Long before, Long after, int limit) {
+        if (before != null || after != null) {
+            throw new UnsupportedOperationException("整会话存储布局不支持按游标翻页，请使用 chat.memory.layout=append");
+        }
+        return ChatHistoryPage.latest(load(memoryId), limit);
+    }
+
+    @Override
+    public void save(Object memoryId, List<ChatMessage> messages) {
+        Criteria criteria = Criteria.where("memoryId").is(memoryId);
+        Query query = new Query(criteria);
+        Update update = new Update();
+        if (format.isLegacyJson()) {
+            update.set("content", ChatMessageSerializer.messagesToJson(messages));
+            update.unset("data");
+        } else {
+            update.set("data", format.packAll(messages));
+            update.unset("content");
+        }
+
+        // 根据query条件能查询出文档，则修改文档；否则新增文档
+        mongoTemplate.upsert(query, update, ChatMessages.class);
+        logger.debug("成功更新记忆ID为 {} 的聊天记录，共 {} 条", memoryId, messages.size());
+    }
+
+    @Override
+    public long delete(Object memoryId) {
+        Criteria criteria = Criteria.where("memoryId").is(memoryId);
+        Query query = new Query(criteria);
+        return mongoTemplate.remove(query, ChatMessages.class).getDeletedCount();
+    }
+}
@@ -0,0 +1,30 @@
+package com.atguigu.java.ai.langchain4j.store;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * json编码，与原有的 ChatMessageSerializer 格式一致
+ */
+public class JsonChatMessageCodec implements ChatMessageCodec {
+
+    public static final byte ID = 1;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(ChatMessage message) {
+        return ChatMessageSerializer.messageToJson(message).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public ChatMessage decode(byte[] data) {
+        return ChatMessageDeserializer.messageFromJson(new String(data, StandardCharsets.UTF_8));
+    }
+}
@@ -4,39 +4,111 @@
  */
 package com.atguigu.java.ai.langchain4j.store;
 
-import com.atguigu.java.ai.langchain4j.bean.ChatMessages;
 import dev.langchain4j.data.message.ChatMessage;
-import dev.langchain4j.data.message.ChatMessageDeserializer;
-import dev.langchain4j.data.message.ChatMessageSerializer;
 import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessException;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * MongoDB聊天记忆存储实现
  * 实现ChatMemoryStore接口，提供基于MongoDB的聊天记忆存储功能
+ * 具体的存储布局见 ChatMemoryLayout；进程内缓存反序列化后的消息列表（按条数和过期时间限制）；写入采用延迟合并，
+ * 同一轮对话中的多次更新只落库一次，应用关闭前会把未落库的数据全部写回
  */
 @Component
 public class MongoChatMemoryStore implements ChatMemoryStore {
 
     private static final Logger logger = LoggerFactory.getLogger(MongoChatMemoryStore.class);
 
+    // 写入线程按记忆ID分片，保证同一会话的写入和删除按顺序执行
+    private static final int WRITER_STRIPES = 4;
+
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    // 缓存的会话数上限
+    @Value("${chat.memory.cache.max-entries:10000}")
+    private int maxEntries;
+
+    // 缓存过期时间（最后一次访问后）
+    @Value("${chat.memory.cache.ttl-seconds:1800}")
+    private long ttlSeconds;
+
+    // 存储布局：document 整会话单文档（原有布局），append 按条追加（开启后已有会话会被迁移，不可回退）
+    @Value("${chat.memory.layout:document}")
+    private String layoutName;
+
+    // 持久化编码：json 与原格式一致，binary 紧凑二进制（开启后写入的数据旧版本无法读取）
+    @Value("${chat.memory.codec:json}")
+    private String codecName;
+
+    // 编码后超过该字节数时压缩，小于 0 表示不压缩
+    @Value("${chat.memory.codec.compress-threshold:-1}")
+    private int compressThreshold;
+
+    // 延迟写入时间，窗口内的多次更新合并为一次写入
+    @Value("${chat.memory.write-behind.delay-ms:3000}")
+    private long writeBehindDelayMs;
+
+    private ChatMessageFormat format;
+    private ChatMemoryLayout layout;
+    private final LinkedHashMap<Object, CacheEntry> cache = new LinkedHashMap<>(1024, 0.75f, true);
+    private final ScheduledExecutorService[] writers = new ScheduledExecutorService[WRITER_STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        ChatMessageCodec codec = "binary".equalsIgnoreCase(codecName.trim())
+                ? new BinaryChatMessageCodec() : new JsonChatMessageCodec();
+        format = new ChatMessageFormat(codec, compressThreshold);
+        DocumentChatMemoryLayout documentLayout = new DocumentChatMemoryLayout(mongoTemplate, format);
+        documentLayout.ensureIndexes();
+        if ("append".equalsIgnoreCase(layoutName.trim())) {
+            AppendOnlyChatMemoryLayout appendOnlyLayout = new AppendOnlyChatMemoryLayout(mongoTemplate, format, documentLayout);
+            appendOnlyLayout.ensureIndexes();
+            layout = appendOnlyLayout;
+        } else {
+            layout = documentLayout;
+        }
+        logger.info("聊天记忆存储布局: {}，编码: {}", layout.getClass().getSimpleName(), format.codecName());
+
+        for (int i = 0; i < WRITER_STRIPES; i++) {
+            String name = "chat-memory-writer-" + i;
+            writers[i] = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
     /**
      * 获取指定记忆ID的聊天消息列表
-     * 从MongoDB中查询并反序列化聊天消息
+     * 优先读取进程内缓存，未命中时从MongoDB中查询并反序列化
      *
      * @param memoryId 记忆ID，用于区分不同的对话会话
      * @return 返回聊天消息列表，如果未找到则返回空列表
@@ -49,18 +121,16 @@ public class MongoChatMemoryStore implements ChatMemoryStore {
                 return new LinkedList<>();
             }
 
-            Criteria criteria = Criteria.where("memoryId").is(memoryId);
-            Query query = new Query(criteria);
-            ChatMessages chatMessages = mongoTemplate.findOne(query, ChatMessages.class);
-
-            if (chatMessages == null) {
-                logger.debug("未找到记忆ID为 {} 的聊天记录", memoryId);
-                return new LinkedList<>();
+            List<ChatMessage> cached = getCached(memoryId);
+            if (cached != null) {
+                hits.increment();
+                return new LinkedList<>(cached);
             }
 
-            List<ChatMessage> messages = ChatMessageDeserializer.messagesFromJson(chatMessages.getContent());
-            logger.debug("成功获取记忆ID为 {} 的聊天记录，共 {} 条", memoryId, messages != null ? messages.size() : 0);
-            return messages != null ? messages : new LinkedList<>();
+            misses.increment();
+            List<ChatMessage> messages = layout.load(memoryId);
+            putClean(memoryId, messages);
+            return new LinkedList<>(messages);
         } catch (Exception e) {
             logger.error("获取聊天记录时发生异常，记忆ID: {}", memoryId, e);
             return new LinkedList<>();
@@ -69,47 +139,48 @@ public class MongoChatMemoryStore implements ChatMemoryStore {
 
     /**
      * 更新指定记忆ID的聊天消息列表
-     * 将聊天消息序列化后存储到MongoDB中，如果不存在则新增
+     * 先更新缓存，再在延迟窗口结束后统一写入MongoDB，如果不存在则新增
      *
      * @param memoryId 记忆ID，用于区分不同的对话会话
      * @param messages 要更新的聊天消息列表
      */
     @Override
     public void updateMessages(Object memoryId, List<ChatMessage> messages) {
-        try {
-            if (memoryId == null) {
-                logger.warn("记忆ID为空，跳过更新操作");
-                return;
-            }
-
-            if (messages == null) {
-                logger.warn("消息列表为空，清空记忆ID为 {} 的聊天记录", memoryId);
-                deleteMessages(memoryId);
-                return;
-            }
-
-            String serializedMessages = ChatMessageSerializer.messagesToJson(messages);
-            Criteria criteria = Criteria.where("memoryId").is(memoryId);
-            Query query = new Query(criteria);
-            Update update = new Update();
-            update.set("content", serializedMessages);
+        if (memoryId == null) {
+            logger.warn("记忆ID为空，跳过更新操作");
+            return;
+        }
 
-            // 根据query条件能查询出文档，则修改文档；否则新增文档
-            mongoTemplate.upsert(query, update, ChatMessages.class);
+        if (messages == null) {
+            logger.warn("消息列表为空，清空记忆ID为 {} 的聊天记录", memoryId);
+            deleteMessages(memoryId);
+            return;
+        }
 
-            logger.debug("成功更新记忆ID为 {} 的聊天记录，共 {} 条", memoryId, messages.size());
-        } catch (DataAccessException e) {
-            logger.error("更新聊天记录时发生数据库访问异常，记忆ID: {}", memoryId, e);
-            throw e;
-        } catch (Exception e) {
-            logger.error("更新聊天记录时发生未知异常，记忆ID: {}", memoryId, e);
-            throw e;
+        updates.increment();
+        boolean schedule;
+        synchronized (cache) {
+            CacheEntry entry = cache.get(memoryId);
+            if (entry == null) {
+                entry = new CacheEntry();
+                cache.put(memoryId, entry);
+            }
+            entry.messages = List.copyOf(messages);
+            entry.touch(ttlMillis());
+            entry.version++;
+            schedule = !entry.flushScheduled;
+            entry.flushScheduled = true;
+            evictIfNecessary();
         }
+        if (schedule) {
+            writerFor(memoryId).schedule(() -> flush(memoryId), writeBehindDelayMs, TimeUnit.MILLISECONDS);
+        }
+        logger.debug("已缓存记忆ID为 {} 的聊天记录，共 {} 条，等待写入", memoryId, messages.size());
     }
 
     /**
      * 删除指定记忆ID的聊天消息
-     * 从MongoDB中删除对应记忆ID的聊天记录
+     * 清除缓存并从MongoDB中删除对应记忆ID的聊天记录
      *
      * @param memoryId 记忆ID，用于区分不同的对话会话
      */
@@ -121,18 +192,243 @@ public class MongoChatMemoryStore implements ChatMemoryStore {
                 return;
             }
 
-            Criteria criteria = Criteria.where("memoryId").is(memoryId);
-            Query query = new Query(criteria);
-
-            long deletedCount = mongoTemplate.remove(query, ChatMessages.class).getDeletedCount();
+            synchronized (cache) {
+                cache.remove(memoryId);
+            }
+            // 在该会话的写入线程上执行，排在已经开始的写入之后，避免删除后又被写回
+            long deletedCount = writerFor(memoryId).submit(() -> layout.delete(memoryId)).get();
 
             logger.debug("删除记忆ID为 {} 的聊天记录，删除数量: {}", memoryId, deletedCount);
-        } catch (DataAccessException e) {
-            logger.error("删除聊天记录时发生数据库访问异常，记忆ID: {}", memoryId, e);
-            throw e;
+        } catch (ExecutionException e) {
+            logger.error("删除聊天记录时发生异常，记忆ID: {}", memoryId, e.getCause());
+            if (e.getCause() instanceof DataAccessException) {
+                throw (DataAccessException) e.getCause();
+            }
+            throw new IllegalStateException("删除聊天记录失败", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("删除聊天记录被中断", e);
+        }
+    }
+
+    /**
+     * 读取会话的已落库消息，不使用也不填充进程内缓存
+     * 多节点部署时由共享的上层缓存调用，避免读到本节点缓存中其他节点已更新过的旧数据；
+     * 本节点还有未落库的更新时以这些更新为准
+     *
+     * @param memoryId 记忆ID
+     * @return 聊天消息列表
+     */
+    List<ChatMessage> getPersistedMessages(Object memoryId) {
+        synchronized (cache) {
+            CacheEntry entry = cache.get(memoryId);
+            if (entry != null && !entry.isClean()) {
+                return new LinkedList<>(entry.messages);
+            }
+        }
+        misses.increment();
+        return layout.load(memoryId);
+    }
+
+    /**
+     * 分页读取聊天历史
+     * 先写入该会话尚未落库的更新，再直接从存储中读取请求的那一页，不经过缓存
+     *
+     * @param memoryId 记忆ID
+     * @param before   只取序号小于该值的消息，可为空
+     * @param after    只取序号大于该值的消息，可为空
+     * @param limit    最多返回的条数
+     * @return 按时间正序排列的一页消息
+     * @throws UnsupportedOperationException 当前存储布局不支持游标翻页时传入了游标
+     */
+    public ChatHistoryPage getHistoryPage(Object memoryId, Long before, Long after, int limit) {
+        flushNow(memoryId);
+        return layout.loadPage(memoryId, before, after, limit);
+    }
+
+    ChatMessageFormat format() {
+        return format;
+    }
+
+    /**
+     * 立即写入指定会话尚未落库的更新
+     *
+     * @param memoryId 记忆ID
+     */
+    public void flushNow(Object memoryId) {
+        try {
+            writerFor(memoryId).submit(() -> flush(memoryId)).get();
+        } catch (ExecutionException e) {
+            logger.error("写入聊天记录失败，记忆ID: {}", memoryId, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 将缓存中的最新消息写入MongoDB，运行在该会话的写入线程上
+     */
+    private void flush(Object memoryId) {
+        List<ChatMessage> snapshot;
+        long version;
+        synchronized (cache) {
+            CacheEntry entry = cache.get(memoryId);
+            if (entry == null || entry.version == entry.flushedVersion) {
+                if (entry != null) {
+                    entry.flushScheduled = false;
+                }
+                return;
+            }
+            snapshot = entry.messages;
+            version = entry.version;
+            entry.flushScheduled = false;
+        }
+
+        try {
+            layout.save(memoryId, snapshot);
+            flushes.increment();
+            synchronized (cache) {
+                CacheEntry entry = cache.get(memoryId);
+                if (entry != null) {
+                    entry.flushedVersion = Math.max(entry.flushedVersion, version);
+                }
+            }
         } catch (Exception e) {
-            logger.error("删除聊天记录时发生未知异常，记忆ID: {}", memoryId, e);
-            throw e;
+            flushFailures.increment();
+            logger.error("写入聊天记录时发生异常，稍后重试，记忆ID: {}", memoryId, e);
+            boolean schedule;
+            synchronized (cache) {
+                CacheEntry entry = cache.get(memoryId);
+                schedule = entry != null && !entry.flushScheduled;
+                if (schedule) {
+                    entry.flushScheduled = true;
+                }
+            }
+            if (schedule) {
+                writerFor(memoryId).schedule(() -> flush(memoryId), writeBehindDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private List<ChatMessage> getCached(Object memoryId) {
+        synchronized (cache) {
+            CacheEntry entry = cache.get(memoryId);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired() && entry.isClean()) {
+                cache.remove(memoryId);
+                return null;
+            }
+            entry.touch(ttlMillis());
+            return entry.messages;
+        }
+    }
+
+    private void putClean(Object memoryId, List<ChatMessage> messages) {
+        synchronized (cache) {
+            // 加载期间已有新的写入时以缓存为准
+            if (cache.containsKey(memoryId)) {
+                return;
+            }
+            CacheEntry entry = new CacheEntry();
+            entry.messages = List.copyOf(messages);
+            entry.touch(ttlMillis());
+            cache.put(memoryId, entry);
+            evictIfNecessary();
+        }
+    }
+
+    /**
+     * 淘汰最久未访问的已落库条目，未落库的条目不会被淘汰
+     */
+    private void evictIfNecessary() {
+        Iterator<Map.Entry<Object, CacheEntry>> it = cache.entrySet().iterator();
+        while (it.hasNext()) {
+            CacheEntry entry = it.next().getValue();
+            if (cache.size() <= maxEntries && !entry.isExpired()) {
+                break;
+            }
+            if (entry.isClean()) {
+                it.remove();
+            }
+        }
+    }
+
+    private ScheduledExecutorService writerFor(Object memoryId) {
+        return writers[Math.floorMod(memoryId.hashCode(), WRITER_STRIPES)];
+    }
+
+    private long ttlMillis() {
+        return TimeUnit.SECONDS.toMillis(ttlSeconds);
+    }
+
+    /**
+     * 获取缓存统计信息
+     *
+     * @return 命中、未命中、更新、实际写入次数及待写入会话数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hit = hits.sum();
+        long miss = misses.sum();
+        stats.put("hits", hit);
+        stats.put("misses", miss);
+        stats.put("hitRatio", hit + miss == 0 ? 0.0 : (double) hit / (hit + miss));
+        stats.put("updates", updates.sum());
+        stats.put("flushes", flushes.sum());
+        stats.put("flushFailures", flushFailures.sum());
+        synchronized (cache) {
+            stats.put("entries", cache.size());
+            stats.put("pendingWrites", cache.values().stream().filter(e -> !e.isClean()).count());
+        }
+        stats.put("format", format.getStats());
+        return stats;
+    }
+
+    /**
+     * 应用关闭前写回全部未落库的会话
+     */
+    @PreDestroy
+    public void shutdown() {
+        List<Object> dirty = new ArrayList<>();
+        synchronized (cache) {
+            cache.forEach((id, entry) -> {
+                if (!entry.isClean()) {
+                    dirty.add(id);
+                }
+            });
+        }
+        for (Object memoryId : dirty) {
+            flushNow(memoryId);
+        }
+        for (ScheduledExecutorService writer : writers) {
+            writer.shutdown();
+        }
+        logger.info("聊天记忆缓存已写回，共 {} 个会话", dirty.size());
+    }
+
+    /**
+     * 缓存条目
+     * version 每次更新递增，flushedVersion 为最后一次成功写入的版本，两者相等即已落库
+     */
+    private static final class CacheEntry {
+        private List<ChatMessage> messages;
+        private long expireAt;
+        private long version;
+        private long flushedVersion;
+        private boolean flushScheduled;
+
+        private void touch(long ttlMillis) {
+            expireAt = System.currentTimeMillis() + ttlMillis;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expireAt;
+        }
+
+        private boolean isClean() {
+            return version == flushedVersion;
         }
     }
-}
\ No newline at end of file
+}
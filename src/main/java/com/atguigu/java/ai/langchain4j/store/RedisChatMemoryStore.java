@@ -0,0 +1,179 @@
+/*
+ * Redis聊天记忆存储实现
+ * 在MongoDB存储之前增加一层Redis缓存，供多个应用节点共享活跃会话
+ */
+package com.atguigu.java.ai.langchain4j.store;
+
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.store.memory.chat.ChatMemoryStore;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Redis聊天记忆存储实现
+ * 活跃会话保存在Redis中，每次读写都会顺延过期时间；Redis未命中时从MongoDB读取并回填。
+ * 写入先更新Redis，再交给 MongoChatMemoryStore 延迟写入MongoDB；Redis不可用时直接使用MongoDB
+ */
+@Component
+public class RedisChatMemoryStore implements ChatMemoryStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisChatMemoryStore.class);
+
+    @Autowired
+    private MongoChatMemoryStore mongoChatMemoryStore;
+
+    @Autowired
+    private RedisConnectionFactory redisConnectionFactory;
+
+    // Redis键前缀
+    @Value("${chat.memory.redis.key-prefix:xiaozhi:memory:}")
+    private String keyPrefix;
+
+    // 会话在Redis中的闲置过期时间
+    @Value("${chat.memory.redis.ttl-seconds:1800}")
+    private long ttlSeconds;
+
+    private RedisTemplate<String, byte[]> redisTemplate;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(redisConnectionFactory);
+        redisTemplate.setKeySerializer(RedisSerializer.string());
+        redisTemplate.setValueSerializer(RedisSerializer.byteArray());
+        redisTemplate.afterPropertiesSet();
+    }
+
+    /**
+     * 获取指定记忆ID的聊天消息列表
+     * 优先读取Redis并顺延过期时间，未命中时从MongoDB读取并写回Redis
+     *
+     * @param memoryId 记忆ID，用于区分不同的对话会话
+     * @return 返回聊天消息列表，如果未找到则返回空列表
+     */
+    @Override
+    public List<ChatMessage> getMessages(Object memoryId) {
+        if (memoryId == null) {
+            logger.warn("记忆ID为空，返回空消息列表");
+            return new LinkedList<>();
+        }
+
+        String key = key(memoryId);
+        try {
+            byte[] data = redisTemplate.opsForValue().getAndExpire(key, ttl());
+            if (data != null) {
+                hits.increment();
+                return new LinkedList<>(mongoChatMemoryStore.format().unpackAll(data));
+            }
+        } catch (Exception e) {
+            errors.increment();
+            logger.warn("读取Redis聊天记录失败，改为读取MongoDB，记忆ID: {}", memoryId, e);
+            return mongoChatMemoryStore.getMessages(memoryId);
+        }
+
+        misses.increment();
+        List<ChatMessage> messages = mongoChatMemoryStore.getPersistedMessages(memoryId);
+        if (!messages.isEmpty()) {
+            writeToRedis(memoryId, messages);
+        }
+        return new LinkedList<>(messages);
+    }
+
+    /**
+     * 更新指定记忆ID的聊天消息列表
+     * 同步写入Redis，MongoDB由 MongoChatMemoryStore 异步写入
+     *
+     * @param memoryId 记忆ID，用于区分不同的对话会话
+     * @param messages 要更新的聊天消息列表
+     */
+    @Override
+    public void updateMessages(Object memoryId, List<ChatMessage> messages) {
+        if (memoryId == null) {
+            logger.warn("记忆ID为空，跳过更新操作");
+            return;
+        }
+        if (messages != null) {
+            writeToRedis(memoryId, messages);
+        }
+        mongoChatMemoryStore.updateMessages(memoryId, messages);
+    }
+
+    /**
+     * 删除指定记忆ID的聊天消息
+     * 同时删除Redis和MongoDB中的记录
+     *
+     * @param memoryId 记忆ID，用于区分不同的对话会话
+     */
+    @Override
+    public void deleteMessages(Object memoryId) {
+        if (memoryId == null) {
+            logger.warn("记忆ID为空，跳过删除操作");
+            return;
+        }
+        try {
+            redisTemplate.delete(key(memoryId));
+        } catch (Exception e) {
+            errors.increment();
+            logger.error("删除Redis聊天记录失败，记忆ID: {}", memoryId, e);
+        }
+        mongoChatMemoryStore.deleteMessages(memoryId);
+    }
+
+    private void writeToRedis(Object memoryId, List<ChatMessage> messages) {
+        try {
+            byte[] data = mongoChatMemoryStore.format().packAll(messages);
+            redisTemplate.opsForValue().set(key(memoryId), data, ttl());
+        } catch (Exception e) {
+            errors.increment();
+            // 删除旧值，避免其他节点读到过期的会话
+            try {
+                redisTemplate.delete(key(memoryId));
+            } catch (Exception ignored) {
+                // Redis整体不可用时删除也会失败，等过期即可
+            }
+            logger.warn("写入Redis聊天记录失败，记忆ID: {}", memoryId, e);
+        }
+    }
+
+    private String key(Object memoryId) {
+        return keyPrefix + memoryId;
+    }
+
+    private Duration ttl() {
+        return Duration.ofSeconds(ttlSeconds);
+    }
+
+    /**
+     * 获取Redis层统计信息
+     *
+     * @return 命中、未命中次数及Redis异常次数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hit = hits.sum();
+        long miss = misses.sum();
+        stats.put("hits", hit);
+        stats.put("misses", miss);
+        stats.put("hitRatio", hit + miss == 0 ? 0.0 : (double) hit / (hit + miss));
+        stats.put("errors", errors.sum());
+        return stats;
+    }
+}
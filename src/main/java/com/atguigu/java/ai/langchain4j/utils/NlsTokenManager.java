@@ -0,0 +1,258 @@
+package com.atguigu.java.ai.langchain4j.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.aliyuncs.CommonRequest;
+import com.aliyuncs.CommonResponse;
+import com.aliyuncs.DefaultAcsClient;
+import com.aliyuncs.IAcsClient;
+import com.aliyuncs.profile.DefaultProfile;
+import com.atguigu.java.ai.langchain4j.exception.VoiceServiceException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 阿里云 NLS Token 管理器
+ * 缓存 CreateToken 返回的 Token 及其过期时间，在过期前由后台线程提前刷新；
+ * 并发的刷新请求会合并为一次远程调用，同时统计命中与刷新次数
+ */
+@Component
+public class NlsTokenManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(NlsTokenManager.class);
+
+    // CreateToken 响应中缺少过期时间时使用的兜底有效期
+    private static final long DEFAULT_TOKEN_TTL_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+    @Value("${aliyun.accessKeyId}")
+    private String accessKeyId;
+
+    @Value("${aliyun.accessKeySecret}")
+    private String accessKeySecret;
+
+    // 在过期前多久开始刷新
+    @Value("${aliyun.nls.token.refresh-ahead-seconds:600}")
+    private long refreshAheadSeconds;
+
+    // 刷新失败后的重试间隔
+    @Value("${aliyun.nls.token.retry-delay-seconds:10}")
+    private long retryDelaySeconds;
+
+    private volatile NlsToken current;
+    private volatile IAcsClient acsClient;
+    private final AtomicReference<CompletableFuture<NlsToken>> inflight = new AtomicReference<>();
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> nextRefresh;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder refreshFailureCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "nls-token-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 启动时异步预取，避免第一通电话承担 CreateToken 延迟
+        scheduler.execute(this::refresh);
+    }
+
+    /**
+     * 获取当前可用的 Token
+     * 缓存有效时直接返回；进入提前刷新窗口时触发后台刷新并仍返回旧 Token；
+     * 仅在没有可用 Token 时同步等待（与其他并发调用共享同一次刷新）
+     *
+     * @return Token 字符串
+     * @throws VoiceServiceException Token 获取失败
+     */
+    public String getToken() {
+        NlsToken token = current;
+        long now = System.currentTimeMillis();
+        if (token != null && !token.isExpired(now)) {
+            hitCount.increment();
+            if (token.needsRefresh(now, refreshAheadMillis()) && inflight.get() == null) {
+                refreshInBackground();
+            }
+            return token.id();
+        }
+
+        missCount.increment();
+        try {
+            return refresh().join().id();
+        } catch (CompletionException e) {
+            throw new VoiceServiceException("获取阿里语音Token失败", e.getCause());
+        }
+    }
+
+    /**
+     * 刷新 Token，同一时刻只会有一个 CreateToken 请求在执行
+     *
+     * @return 刷新结果，已有刷新在进行时返回同一个 Future
+     */
+    CompletableFuture<NlsToken> refresh() {
+        while (true) {
+            CompletableFuture<NlsToken> running = inflight.get();
+            if (running != null) {
+                coalescedCount.increment();
+                return running;
+            }
+            CompletableFuture<NlsToken> created = new CompletableFuture<>();
+            if (inflight.compareAndSet(null, created)) {
+                doRefresh(created);
+                return created;
+            }
+        }
+    }
+
+    private void doRefresh(CompletableFuture<NlsToken> future) {
+        try {
+            // 抢到刷新权之前可能已有其他线程刷新成功
+            NlsToken token = current;
+            long now = System.currentTimeMillis();
+            if (token == null || token.needsRefresh(now, refreshAheadMillis())) {
+                token = createToken();
+                current = token;
+                refreshCount.increment();
+                logger.info("阿里语音Token已刷新，过期时间: {}", token.expireTimeMillis());
+            }
+            scheduleNext(token.expireTimeMillis() - refreshAheadMillis() - now);
+            future.complete(token);
+        } catch (Exception e) {
+            refreshFailureCount.increment();
+            logger.error("刷新阿里语音Token失败，{} 秒后重试", retryDelaySeconds, e);
+            scheduleNext(TimeUnit.SECONDS.toMillis(retryDelaySeconds));
+            future.completeExceptionally(e);
+        } finally {
+            inflight.compareAndSet(future, null);
+        }
+    }
+
+    /**
+     * 在后台线程刷新；应用关闭过程中不再刷新，当前 Token 在过期前仍可使用
+     */
+    private void refreshInBackground() {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        try {
+            scheduler.execute(this::refresh);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Token刷新线程已关闭，跳过后台刷新");
+        }
+    }
+
+    private synchronized void scheduleNext(long delayMillis) {
+        if (scheduler == null || scheduler.isShutdown()) {
+            return;
+        }
+        if (nextRefresh != null) {
+            nextRefresh.cancel(false);
+        }
+        try {
+            nextRefresh = scheduler.schedule(this::refresh, Math.max(delayMillis, 1000L), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 检查之后被关闭
+            logger.debug("Token刷新线程已关闭，不再安排刷新");
+        }
+    }
+
+    /**
+     * 调用 CreateToken 接口获取新 Token
+     */
+    private NlsToken createToken() throws Exception {
+        CommonRequest request = new CommonRequest();
+        request.setSysDomain("nls-meta.cn-shanghai.aliyuncs.com");
+        request.setSysVersion("2019-02-28");
+        request.setSysAction("CreateToken");
+
+        CommonResponse response = getAcsClient().getCommonResponse(request);
+        if (response.getHttpStatus() != 200) {
+            throw new VoiceServiceException("获取阿里语音Token失败，HTTP状态码: " + response.getHttpStatus());
+        }
+
+        JSONObject token = JSON.parseObject(response.getData()).getJSONObject("Token");
+        String id = token.getString("Id");
+        Long expireTime = token.getLong("ExpireTime"); // 单位：秒
+        long expireTimeMillis = expireTime != null
+                ? TimeUnit.SECONDS.toMillis(expireTime)
+                : System.currentTimeMillis() + DEFAULT_TOKEN_TTL_MILLIS;
+        return new NlsToken(id, expireTimeMillis);
+    }
+
+    private IAcsClient getAcsClient() {
+        IAcsClient client = acsClient;
+        if (client == null) {
+            synchronized (this) {
+                client = acsClient;
+                if (client == null) {
+                    DefaultProfile profile = DefaultProfile.getProfile("cn-shanghai", accessKeyId, accessKeySecret);
+                    client = new DefaultAcsClient(profile);
+                    acsClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    private long refreshAheadMillis() {
+        return TimeUnit.SECONDS.toMillis(refreshAheadSeconds);
+    }
+
+    /**
+     * 获取 Token 缓存统计信息
+     *
+     * @return 命中、未命中、刷新、刷新失败、合并刷新次数及当前 Token 过期时间
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hitCount.sum());
+        stats.put("misses", missCount.sum());
+        stats.put("refreshes", refreshCount.sum());
+        stats.put("refreshFailures", refreshFailureCount.sum());
+        stats.put("coalescedRefreshes", coalescedCount.sum());
+        NlsToken token = current;
+        stats.put("expireTimeMillis", token != null ? token.expireTimeMillis() : null);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 缓存的 Token 及其过期时间
+     */
+    record NlsToken(String id, long expireTimeMillis) {
+
+        boolean isExpired(long now) {
+            return now >= expireTimeMillis;
+        }
+
+        boolean needsRefresh(long now, long refreshAheadMillis) {
+            return now >= expireTimeMillis - refreshAheadMillis;
+        }
+    }
+}
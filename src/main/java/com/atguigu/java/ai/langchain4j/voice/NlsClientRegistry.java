@@ -0,0 +1,182 @@
+package com.atguigu.java.ai.langchain4j.voice;
+
+import com.alibaba.nls.client.protocol.NlsClient;
+import com.atguigu.java.ai.langchain4j.exception.VoiceServiceException;
+import com.atguigu.java.ai.langchain4j.utils.NlsTokenManager;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 共享的 NlsClient 注册表
+ * TTS 与 ASR 共用同一个 NlsClient（及其 Netty 事件循环）；Token 变化时创建新客户端并切换，
+ * 旧客户端在所有租约归还后才关闭，因此不会打断进行中的合成或识别任务
+ */
+@Component
+public class NlsClientRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(NlsClientRegistry.class);
+
+    @Autowired
+    private NlsTokenManager nlsTokenManager;
+
+    private volatile ClientHolder current;
+
+    private final LongAdder clientsCreated = new LongAdder();
+    private final LongAdder clientsShutdown = new LongAdder();
+    private final AtomicInteger activeLeases = new AtomicInteger();
+
+    /**
+     * 租用当前的 NlsClient，使用完毕后必须关闭租约
+     * 快速路径只有一次 volatile 读和一次 CAS，不持有全局锁
+     *
+     * @return 客户端租约
+     * @throws VoiceServiceException Token 获取失败
+     */
+    public Lease acquire() {
+        String token = nlsTokenManager.getToken();
+        while (true) {
+            ClientHolder holder = current;
+            if (holder == null || !holder.token.equals(token)) {
+                holder = rotate();
+                token = holder.token;
+            }
+            if (holder.retain()) {
+                activeLeases.incrementAndGet();
+                return new Lease(holder);
+            }
+            // 刚好被轮换并关闭，重新读取
+        }
+    }
+
+    /**
+     * 获取当前客户端（不加租约）
+     * 仅用于兼容旧接口，Token 轮换后该客户端可能被关闭，新代码应使用 {@link #acquire()}
+     *
+     * @return 当前 NlsClient
+     */
+    public NlsClient getClient() {
+        try (Lease lease = acquire()) {
+            return lease.client();
+        }
+    }
+
+    /**
+     * 切换到最新 Token 对应的客户端
+     * 在锁内重新读取 Token，调用方在锁外读到的 Token 可能已经过时，据此切换会在新旧客户端之间来回切换
+     */
+    private synchronized ClientHolder rotate() {
+        String token = nlsTokenManager.getToken();
+        ClientHolder old = current;
+        if (old != null && old.token.equals(token)) {
+            return old;
+        }
+        ClientHolder created = new ClientHolder(new NlsClient(token), token);
+        clientsCreated.increment();
+        current = created;
+        if (old != null) {
+            logger.info("阿里语音Token已变更，切换 NlsClient");
+            old.release();
+        }
+        return created;
+    }
+
+    /**
+     * 获取客户端注册表统计信息
+     *
+     * @return 已创建、已关闭的客户端数量及当前租约数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("clientsCreated", clientsCreated.sum());
+        stats.put("clientsShutdown", clientsShutdown.sum());
+        stats.put("activeLeases", activeLeases.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        ClientHolder holder = current;
+        current = null;
+        if (holder != null) {
+            holder.close();
+        }
+    }
+
+    /**
+     * NlsClient 及其引用计数
+     * 注册表本身持有一个引用，计数归零时关闭客户端
+     */
+    private final class ClientHolder {
+        private final NlsClient client;
+        private final String token;
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private ClientHolder(NlsClient client, String token) {
+            this.client = client;
+            this.token = token;
+        }
+
+        private boolean retain() {
+            while (true) {
+                int n = refs.get();
+                if (n <= 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            if (refs.decrementAndGet() == 0) {
+                close();
+            }
+        }
+
+        private void close() {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    client.shutdown();
+                    clientsShutdown.increment();
+                } catch (Exception e) {
+                    logger.error("关闭 NlsClient 失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * NlsClient 租约，关闭时归还引用
+     */
+    public final class Lease implements AutoCloseable {
+        private final ClientHolder holder;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Lease(ClientHolder holder) {
+            this.holder = holder;
+        }
+
+        public NlsClient client() {
+            return holder.client;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                activeLeases.decrementAndGet();
+                holder.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.atguigu.java.ai.langchain4j.voice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式分句器
+ * 将大模型逐字输出的文本在句末标点处切分为完整句子，供语音合成逐句处理；
+ * 过短的句子会与下一句合并，过长且没有句末标点的文本在逗号等次级标点处切分
+ */
+public class SentenceSplitter {
+
+    // 句末标点
+    private static final String SENTENCE_END = "。！？；!?;\n";
+    // 次级标点，仅在缓冲区过长时作为切分点
+    private static final String CLAUSE_END = "，、：,:";
+    // 自带停顿的全角标点，拼接句子时其后不需要补空格
+    private static final String FULL_WIDTH_PUNCTUATION = "。！？；，、：";
+
+    private final int minLength;
+    private final int maxLength;
+    private final StringBuilder buffer = new StringBuilder();
+
+    /**
+     * @param minLength 句子最小长度，短于该长度的句子与下一句合并
+     * @param maxLength 缓冲区超过该长度时允许在次级标点处切分
+     */
+    public SentenceSplitter(int minLength, int maxLength) {
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * 追加一段流式文本
+     *
+     * @param text 大模型输出的文本片段
+     * @return 本次追加后得到的完整句子，可能为空
+     */
+    public List<String> append(String text) {
+        List<String> sentences = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return sentences;
+        }
+        buffer.append(text);
+
+        int start = 0;
+        for (int i = 0; i < buffer.length(); i++) {
+            char c = buffer.charAt(i);
+            int length = i + 1 - start;
+            boolean boundary = SENTENCE_END.indexOf(c) >= 0 && length >= minLength
+                    || CLAUSE_END.indexOf(c) >= 0 && length >= maxLength;
+            if (boundary) {
+                addIfNotBlank(sentences, buffer.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        buffer.delete(0, start);
+        return sentences;
+    }
+
+    /**
+     * 取出缓冲区中剩余的文本（流结束时调用）
+     *
+     * @return 剩余文本，没有时返回 null
+     */
+    public String flush() {
+        String rest = buffer.toString().trim();
+        buffer.setLength(0);
+        return rest.isEmpty() ? null : rest;
+    }
+
+    /**
+     * 将一段完整文本切分为适合单次合成的分段
+     * 先按句切分，再把相邻短句合并到不超过 maxLength；没有标点的超长句按长度硬切，切点不会落在代理对中间。
+     * 合并时句子之间保留原有的标点，上一句不以全角标点结尾（如英文句子、换行处断开的行）时补一个空格
+     *
+     * @param text      完整文本
+     * @param maxLength 单个分段的最大长度
+     * @return 按原文顺序排列的分段
+     */
+    public static List<String> splitForSynthesis(String text, int maxLength) {
+        SentenceSplitter splitter = new SentenceSplitter(1, maxLength);
+        List<String> sentences = new ArrayList<>(splitter.append(text));
+        String rest = splitter.flush();
+        if (rest != null) {
+            sentences.add(rest);
+        }
+
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String sentence : sentences) {
+            while (sentence.length() > maxLength) {
+                if (current.length() > 0) {
+                    chunks.add(current.toString());
+                    current.setLength(0);
+                }
+                int cut = maxLength;
+                if (cut > 1 && Character.isHighSurrogate(sentence.charAt(cut - 1))) {
+                    cut--;
+                }
+                chunks.add(sentence.substring(0, cut));
+                sentence = sentence.substring(cut);
+            }
+            String separator = current.length() > 0 ? separatorAfter(current) : "";
+            if (current.length() + separator.length() + sentence.length() > maxLength) {
+                chunks.add(current.toString());
+                current.setLength(0);
+                separator = "";
+            }
+            current.append(separator).append(sentence);
+        }
+        if (current.length() > 0) {
+            chunks.add(current.toString());
+        }
+        return chunks;
+    }
+
+    /**
+     * 两句拼接时的分隔：全角标点自带停顿，其余情况补一个空格，避免英文单词或两行文字连在一起
+     */
+    private static String separatorAfter(CharSequence previous) {
+        char last = previous.charAt(previous.length() - 1);
+        return FULL_WIDTH_PUNCTUATION.indexOf(last) >= 0 ? "" : " ";
+    }
+
+    private static void addIfNotBlank(List<String> sentences, String sentence) {
+        String trimmed = sentence.trim();
+        if (!trimmed.isEmpty()) {
+            sentences.add(trimmed);
+        }
+    }
+}
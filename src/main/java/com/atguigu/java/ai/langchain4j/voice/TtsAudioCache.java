@@ -0,0 +1,212 @@
+package com.atguigu.java.ai.langchain4j.voice;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 语音合成结果缓存
+ * 以"规范化文本 + 音色 + 语速 + 格式 + 采样率"的摘要为键：
+ * 内存层为按字节数限制容量的 LRU；磁盘层可选，使用内存映射读取，重启后仍然有效
+ */
+@Component
+public class TtsAudioCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(TtsAudioCache.class);
+    private static final String FILE_SUFFIX = ".audio";
+
+    // 内存层容量（字节）
+    @Value("${voice.tts.cache.max-memory-bytes:67108864}")
+    private long maxMemoryBytes;
+
+    // 单条音频超过该大小时不缓存，避免长文本挤占缓存
+    @Value("${voice.tts.cache.max-entry-bytes:2097152}")
+    private long maxEntryBytes;
+
+    // 磁盘层目录，留空表示不启用
+    @Value("${voice.tts.cache.disk-dir:}")
+    private String diskDir;
+
+    private Path diskPath;
+    private long memoryBytes;
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        if (diskDir == null || diskDir.isBlank()) {
+            return;
+        }
+        try {
+            diskPath = Files.createDirectories(Paths.get(diskDir));
+            logger.info("TTS磁盘缓存已启用: {}", diskPath);
+        } catch (IOException e) {
+            logger.error("创建TTS磁盘缓存目录失败，仅使用内存缓存: {}", diskDir, e);
+            diskPath = null;
+        }
+    }
+
+    /**
+     * 计算缓存键
+     * 文本会去除首尾空白并合并连续空白，避免仅格式不同的文本重复合成
+     *
+     * @return 十六进制 SHA-256 摘要
+     */
+    public static String key(String text, String voice, int speechRate, String format, int sampleRate) {
+        String normalized = text.trim().replaceAll("\\s+", " ");
+        String raw = normalized + '\u0000' + voice + '\u0000' + speechRate + '\u0000' + format + '\u0000' + sampleRate;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(raw.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    /**
+     * 读取缓存，内存未命中时回落到磁盘层并提升到内存
+     *
+     * @param key 缓存键
+     * @return 音频数据（调用方不得修改），未命中返回 null
+     */
+    public byte[] get(String key) {
+        byte[] audio;
+        synchronized (memory) {
+            audio = memory.get(key);
+        }
+        if (audio != null) {
+            memoryHits.increment();
+            return audio;
+        }
+
+        audio = readFromDisk(key);
+        if (audio != null) {
+            diskHits.increment();
+            putInMemory(key, audio);
+            return audio;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 获取单条音频的缓存大小上限，超过该大小的音频不会被缓存
+     *
+     * @return 单条音频最大字节数
+     */
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * 写入缓存
+     *
+     * @param key   缓存键
+     * @param audio 完整音频数据，直接保存不复制，写入后调用方不得再修改
+     */
+    public void put(String key, byte[] audio) {
+        if (audio == null || audio.length == 0 || audio.length > maxEntryBytes) {
+            return;
+        }
+        puts.increment();
+        putInMemory(key, audio);
+        writeToDisk(key, audio);
+    }
+
+    private void putInMemory(String key, byte[] audio) {
+        synchronized (memory) {
+            byte[] previous = memory.put(key, audio);
+            memoryBytes += audio.length - (previous != null ? previous.length : 0);
+            Iterator<Map.Entry<String, byte[]>> it = memory.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+                Map.Entry<String, byte[]> eldest = it.next();
+                memoryBytes -= eldest.getValue().length;
+                it.remove();
+            }
+        }
+    }
+
+    private byte[] readFromDisk(String key) {
+        if (diskPath == null) {
+            return null;
+        }
+        Path file = diskPath.resolve(key + FILE_SUFFIX);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] audio = new byte[mapped.remaining()];
+            mapped.get(audio);
+            return audio;
+        } catch (IOException e) {
+            logger.warn("读取TTS磁盘缓存失败: {}", file, e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, byte[] audio) {
+        if (diskPath == null) {
+            return;
+        }
+        Path file = diskPath.resolve(key + FILE_SUFFIX);
+        if (Files.exists(file)) {
+            return;
+        }
+        try {
+            // 先写临时文件再原子替换，避免读到半个文件
+            Path tmp = Files.createTempFile(diskPath, key, ".tmp");
+            Files.write(tmp, audio);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("写入TTS磁盘缓存失败: {}", file, e);
+        }
+    }
+
+    /**
+     * 获取缓存统计信息
+     *
+     * @return 内存/磁盘命中、未命中、命中率及内存占用
+     */
+    public Map<String, Object> getStats() {
+        long memoryHit = memoryHits.sum();
+        long diskHit = diskHits.sum();
+        long miss = misses.sum();
+        long total = memoryHit + diskHit + miss;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("memoryHits", memoryHit);
+        stats.put("diskHits", diskHit);
+        stats.put("misses", miss);
+        stats.put("hitRatio", total == 0 ? 0.0 : (double) (memoryHit + diskHit) / total);
+        stats.put("puts", puts.sum());
+        synchronized (memory) {
+            stats.put("entries", memory.size());
+            stats.put("memoryBytes", memoryBytes);
+        }
+        stats.put("diskEnabled", diskPath != null);
+        return stats;
+    }
+}
@@ -0,0 +1,194 @@
+package com.atguigu.java.ai.langchain4j.voice;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 语音轮次执行器
+ * 每句用户语音触发的一轮"生成 + 合成"在这里执行，并发数和排队数都有上限，超出时拒绝并由调用方提示用户繁忙；
+ * 运行在 JDK 21+ 时使用虚拟线程，否则退化为固定大小的线程池，同时统计各阶段耗时
+ */
+@Component
+public class VoiceTurnExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(VoiceTurnExecutor.class);
+
+    // 同时执行的轮次上限
+    @Value("${voice.turn.max-concurrent:64}")
+    private int maxConcurrent;
+
+    // 等待执行的轮次上限，超出即拒绝
+    @Value("${voice.turn.max-queued:128}")
+    private int maxQueued;
+
+    private ExecutorService executor;
+    private Semaphore permits;
+    private boolean virtualThreads;
+
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final Map<String, StageStats> stages = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        permits = new Semaphore(maxConcurrent, true);
+        executor = newVirtualThreadExecutor();
+        virtualThreads = executor != null;
+        if (executor == null) {
+            AtomicInteger index = new AtomicInteger();
+            executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(maxQueued), r -> {
+                        Thread thread = new Thread(r, "voice-turn-" + index.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+        }
+        logger.info("语音轮次执行器已启动，虚拟线程: {}，并发上限: {}，排队上限: {}",
+                virtualThreads, maxConcurrent, maxQueued);
+    }
+
+    /**
+     * 项目以 Java 17 编译，运行在 JDK 21+ 时通过反射启用虚拟线程
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 提交一轮语音处理
+     *
+     * @param task 轮次任务
+     * @return 可用于取消任务的 Future
+     * @throws RejectedExecutionException 执行中与排队中的轮次已达上限
+     */
+    public Future<?> submit(Runnable task) {
+        if (pending.incrementAndGet() > maxConcurrent + maxQueued) {
+            pending.decrementAndGet();
+            rejectedCount.increment();
+            throw new RejectedExecutionException("语音处理繁忙");
+        }
+        submittedCount.increment();
+
+        long submittedAt = System.nanoTime();
+        FutureTask<Void> future = new FutureTask<>(() -> {
+            boolean acquired = false;
+            try {
+                permits.acquire();
+                acquired = true;
+                active.incrementAndGet();
+                recordStage("queue", System.nanoTime() - submittedAt);
+                task.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (acquired) {
+                    active.decrementAndGet();
+                    permits.release();
+                }
+            }
+        }, null) {
+            @Override
+            protected void done() {
+                // 排队中被取消的任务不会执行，在这里统一扣减
+                pending.decrementAndGet();
+            }
+        };
+
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            pending.decrementAndGet();
+            rejectedCount.increment();
+            throw e;
+        }
+        return future;
+    }
+
+    /**
+     * 记录某个阶段的耗时
+     *
+     * @param stage 阶段名称
+     * @param nanos 耗时（纳秒）
+     */
+    public void recordStage(String stage, long nanos) {
+        stages.computeIfAbsent(stage, k -> new StageStats()).record(nanos);
+    }
+
+    /**
+     * 获取执行器统计信息
+     *
+     * @return 并发、排队、拒绝数量及各阶段的次数、平均和最大耗时（毫秒）
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("virtualThreads", virtualThreads);
+        stats.put("active", active.get());
+        stats.put("queued", Math.max(0, pending.get() - active.get()));
+        stats.put("submitted", submittedCount.sum());
+        stats.put("rejected", rejectedCount.sum());
+        Map<String, Object> stageStats = new LinkedHashMap<>();
+        stages.forEach((name, s) -> stageStats.put(name, s.toMap()));
+        stats.put("stages", stageStats);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 单个阶段的耗时统计
+     */
+    private static final class StageStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        private void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        private Map<String, Object> toMap() {
+            long n = count.sum();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", n);
+            map.put("avgMs", n == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / n));
+            map.put("maxMs", TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+            return map;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.rag.content.Content;
+import dev.langchain4j.rag.content.retriever.ContentRetriever;
+import dev.langchain4j.rag.query.Query;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 混合检索测试
+ * 倒排与向量两路结果按RRF融合的顺序；较短且被倒排索引完整命中的查询直接返回、不调用向量检索，
+ * 查询过长、未完整命中或关闭该功能时仍进行向量检索
+ */
+class HybridContentRetrieverTest {
+
+    private static final int RRF_K = 60;
+
+    @Test
+    void fusesBothRankingsWithReciprocalRank() {
+        LexicalIndex index = index("内科门诊", "门诊大厅");
+        // 倒排：内科门诊、门诊大厅；向量：门诊大厅、急诊科
+        ContentRetriever vector = query -> List.of(Content.from("门诊大厅"), Content.from("急诊科"));
+        HybridContentRetriever retriever = new HybridContentRetriever(() -> index, vector, 5, 3, RRF_K, 0);
+
+        List<Content> contents = retriever.retrieve(Query.from("内科门诊"));
+
+        // 门诊大厅 1/62 + 1/61，内科门诊 1/61，急诊科 1/62
+        assertEquals(List.of("门诊大厅", "内科门诊", "急诊科"), texts(contents));
+    }
+
+    @Test
+    void keepsOnlyMaxResultsAfterFusion() {
+        LexicalIndex index = index("内科门诊", "门诊大厅");
+        ContentRetriever vector = query -> List.of(Content.from("门诊大厅"), Content.from("急诊科"));
+        HybridContentRetriever retriever = new HybridContentRetriever(() -> index, vector, 5, 2, RRF_K, 0);
+
+        assertEquals(List.of("门诊大厅", "内科门诊"), texts(retriever.retrieve(Query.from("内科门诊"))));
+    }
+
+    @Test
+    void shortFullyMatchedQuerySkipsVectorSearch() {
+        LexicalIndex index = index("内科张伟医生，周一上午出诊", "外科李明医生，周二下午出诊");
+        AtomicInteger vectorCalls = new AtomicInteger();
+        HybridContentRetriever retriever = new HybridContentRetriever(() -> index, countingVector(vectorCalls),
+                5, 2, RRF_K, 12);
+
+        List<Content> contents = retriever.retrieve(Query.from("张伟医生"));
+
+        assertEquals(List.of("内科张伟医生，周一上午出诊"), texts(contents));
+        assertEquals(0, vectorCalls.get());
+        assertEquals(1L, retriever.getStats().get("exactHits"));
+    }
+
+    @Test
+    void partiallyMatchedQueryStillSearchesVectors() {
+        LexicalIndex index = index("内科张伟医生，周一上午出诊");
+        AtomicInteger vectorCalls = new AtomicInteger();
+        HybridContentRetriever retriever = new HybridContentRetriever(() -> index, countingVector(vectorCalls),
+                5, 2, RRF_K, 12);
+
+        // “王芳”未被命中，覆盖率不足 1
+        List<Content> contents = retriever.retrieve(Query.from("张伟王芳"));
+
+        assertEquals(1, vectorCalls.get());
+        assertEquals(List.of("内科张伟医生，周一上午出诊", "向量结果"), texts(contents));
+        assertEquals(0L, retriever.getStats().get("exactHits"));
+    }
+
+    @Test
+    void longQueryStillSearchesVectors() {
+        LexicalIndex index = index("内科张伟医生，周一上午出诊");
+        AtomicInteger vectorCalls = new AtomicInteger();
+        HybridContentRetriever retriever = new HybridContentRetriever(() -> index, countingVector(vectorCalls),
+                5, 2, RRF_K, 3);
+
+        retriever.retrieve(Query.from("张伟医生"));
+
+        assertEquals(1, vectorCalls.get());
+    }
+
+    @Test
+    void exactShortcutDisabledWithZeroMaxChars() {
+        LexicalIndex index = index("内科张伟医生，周一上午出诊");
+        AtomicInteger vectorCalls = new AtomicInteger();
+        HybridContentRetriever retriever = new HybridContentRetriever(() -> index, countingVector(vectorCalls),
+                5, 2, RRF_K, 0);
+
+        retriever.retrieve(Query.from("张伟"));
+
+        assertEquals(1, vectorCalls.get());
+    }
+
+    @Test
+    void vectorFailureFallsBackToLexicalResults() {
+        LexicalIndex index = index("内科门诊", "门诊大厅");
+        ContentRetriever vector = query -> {
+            throw new IllegalStateException("向量库不可用");
+        };
+        HybridContentRetriever retriever = new HybridContentRetriever(() -> index, vector, 5, 2, RRF_K, 0);
+
+        assertEquals(List.of("内科门诊", "门诊大厅"), texts(retriever.retrieve(Query.from("内科门诊"))));
+        assertEquals(1L, retriever.getStats().get("vectorFailures"));
+    }
+
+    @Test
+    void missingLexicalIndexUsesVectorResultsOnly() {
+        ContentRetriever vector = query -> List.of(Content.from("急诊科"));
+        HybridContentRetriever retriever = new HybridContentRetriever(() -> null, vector, 5, 2, RRF_K, 12);
+
+        assertEquals(List.of("急诊科"), texts(retriever.retrieve(Query.from("急诊"))));
+    }
+
+    private static ContentRetriever countingVector(AtomicInteger calls) {
+        return query -> {
+            calls.incrementAndGet();
+            return List.of(Content.from("向量结果"));
+        };
+    }
+
+    private static LexicalIndex index(String... texts) {
+        LexicalIndex index = new LexicalIndex();
+        for (int i = 0; i < texts.length; i++) {
+            index.add(String.valueOf(i), TextSegment.from(texts[i]));
+        }
+        return index;
+    }
+
+    private static List<String> texts(List<Content> contents) {
+        return contents.stream().map(content -> content.textSegment().text()).toList();
+    }
+}
@@ -0,0 +1,104 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import dev.langchain4j.data.segment.TextSegment;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 倒排索引测试
+ * 分词：连续汉字按相邻两字切分（单个汉字保留为一个词），字母和数字按整词小写；
+ * 检索：按BM25排序（少见的词权重更高、同样命中时较短的分段靠前），并给出查询词的命中比例
+ */
+class LexicalIndexTest {
+
+    @Test
+    void splitsHanRunsIntoOverlappingBigrams() {
+        assertEquals(List.of("挂号"), LexicalIndex.tokenize("挂号"));
+        assertEquals(List.of("内科", "科门", "门诊"), LexicalIndex.tokenize("内科门诊"));
+    }
+
+    @Test
+    void keepsSingleHanCharacterAsUnigram() {
+        assertEquals(List.of("药"), LexicalIndex.tokenize("药"));
+        assertEquals(List.of("一", "楼"), LexicalIndex.tokenize("一 楼"));
+    }
+
+    @Test
+    void punctuationBreaksHanRuns() {
+        assertEquals(List.of("内科", "外科"), LexicalIndex.tokenize("内科、外科"));
+        assertEquals(List.of("张医", "医生", "在", "几楼"), LexicalIndex.tokenize("张医生，在？几楼"));
+    }
+
+    @Test
+    void lowercasesLatinWordsAndKeepsDigits() {
+        assertEquals(List.of("ct", "检查", "2", "号楼"), LexicalIndex.tokenize("CT检查 2号楼"));
+        assertEquals(List.of("hiv", "检测", "测需", "3", "天"), LexicalIndex.tokenize("HIV检测需3天"));
+    }
+
+    @Test
+    void blankTextHasNoTokens() {
+        assertEquals(List.of(), LexicalIndex.tokenize(""));
+        assertEquals(List.of(), LexicalIndex.tokenize(" ，。！ "));
+    }
+
+    @Test
+    void rarerTermOutweighsCommonTerm() {
+        LexicalIndex index = index("门诊挂号", "门诊缴费", "门诊取药", "急诊挂号");
+
+        List<LexicalIndex.Match> matches = index.search("门诊 急诊", 10);
+
+        assertEquals(4, matches.size());
+        assertEquals("3", matches.get(0).id(), "只出现在一个分段中的“急诊”权重应高于三个分段都有的“门诊”");
+        assertEquals(0.5, matches.get(0).coverage());
+    }
+
+    @Test
+    void shorterSegmentRanksFirstForSameTermFrequency() {
+        LexicalIndex index = index("儿科位于门诊楼三层东侧走廊尽头", "儿科");
+
+        List<LexicalIndex.Match> matches = index.search("儿科", 10);
+
+        assertEquals(List.of("1", "0"), ids(matches));
+        assertEquals(1.0, matches.get(1).coverage());
+    }
+
+    @Test
+    void onlyReturnsSegmentsContainingQueryTermsUpToMaxResults() {
+        LexicalIndex index = index("内科门诊在二楼", "外科门诊在三楼", "内科张伟医生", "药房在一楼");
+
+        assertEquals(List.of("2"), ids(index.search("张伟", 10)));
+        assertEquals(2, index.search("门诊", 10).size());
+        assertEquals(1, index.search("门诊", 1).size());
+        assertEquals(List.of(), index.search("停车场", 10));
+    }
+
+    @Test
+    void replacedAndRemovedSegmentsLeaveTheIndex() {
+        LexicalIndex index = index("内科张伟医生", "外科李明医生");
+        index.add("0", TextSegment.from("内科王芳医生"));
+        index.remove("1");
+
+        assertEquals(List.of(), index.search("张伟", 10));
+        assertEquals(List.of(), index.search("李明", 10));
+        assertEquals(List.of("0"), ids(index.search("王芳", 10)));
+        assertEquals(1, index.size());
+    }
+
+    /**
+     * 按顺序以 "0"、"1"、... 为ID建立索引
+     */
+    private static LexicalIndex index(String... texts) {
+        LexicalIndex index = new LexicalIndex();
+        for (int i = 0; i < texts.length; i++) {
+            index.add(String.valueOf(i), TextSegment.from(texts[i]));
+        }
+        return index;
+    }
+
+    private static List<String> ids(List<LexicalIndex.Match> matches) {
+        return matches.stream().map(LexicalIndex.Match::id).toList();
+    }
+}
@@ -0,0 +1,136 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import com.atguigu.java.ai.langchain4j.memory.TokenEstimator;
+import dev.langchain4j.data.document.Document;
+import dev.langchain4j.data.segment.TextSegment;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Markdown 文档分段测试
+ * 覆盖表格拆分时重复表头、列表按条目和段落按句子拆分、跳级标题的路径以及未闭合的代码块
+ */
+class MarkdownDocumentSplitterTest {
+
+    private static final String TABLE_HEADER = "| 项目 | 价格 |\n| --- | ---: |\n";
+
+    @Test
+    void repeatsTableHeaderInEveryPart() {
+        StringBuilder markdown = new StringBuilder("# 收费标准\n\n").append(TABLE_HEADER);
+        List<String> rows = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            String row = "| 检查项目" + i + " | " + (i * 10) + "元 |";
+            rows.add(row);
+            markdown.append(row).append('\n');
+        }
+
+        List<TextSegment> segments = new MarkdownDocumentSplitter(60).split(Document.from(markdown.toString()));
+
+        assertTrue(segments.size() > 1, "超长表格应拆成多段");
+        List<String> seen = new ArrayList<>();
+        for (TextSegment segment : segments) {
+            assertTrue(segment.text().startsWith("收费标准\n" + TABLE_HEADER), "每段都应以标题路径和表头开头: " + segment.text());
+            for (String line : body(segment, "收费标准").split("\n")) {
+                if (line.startsWith("| 检查项目")) {
+                    seen.add(line);
+                }
+            }
+        }
+        assertEquals(rows, seen, "表格的每一行应按顺序且只出现一次");
+    }
+
+    @Test
+    void splitsListByItemKeepingContinuationLines() {
+        StringBuilder markdown = new StringBuilder("# 就诊须知\n\n");
+        for (int i = 1; i <= 12; i++) {
+            markdown.append("- 第").append(i).append("条：请按预约时间到诊室候诊\n")
+                    .append("  携带身份证和就诊卡\n");
+        }
+
+        int maxTokens = 50;
+        List<TextSegment> segments = new MarkdownDocumentSplitter(maxTokens).split(Document.from(markdown.toString()));
+
+        assertTrue(segments.size() > 1, "超长列表应拆成多段");
+        int items = 0;
+        for (TextSegment segment : segments) {
+            assertTrue(TokenEstimator.estimate(segment.text()) <= maxTokens, "分段超出长度上限: " + segment.text());
+            String[] lines = body(segment, "就诊须知").split("\n");
+            assertTrue(lines[0].startsWith("- "), "分段不应从列表项的续行开始: " + segment.text());
+            for (int i = 0; i < lines.length; i++) {
+                if (lines[i].startsWith("- ")) {
+                    items++;
+                    assertEquals("  携带身份证和就诊卡", lines[i + 1], "续行应与所属条目在同一段");
+                }
+            }
+        }
+        assertEquals(12, items);
+    }
+
+    @Test
+    void splitsParagraphBySentence() {
+        String sentence = "门诊时间为每天上午八点至下午五点，节假日照常开放。";
+        String markdown = "# 门诊时间\n\n" + sentence.repeat(10);
+
+        int maxTokens = 60;
+        List<TextSegment> segments = new MarkdownDocumentSplitter(maxTokens).split(Document.from(markdown));
+
+        assertTrue(segments.size() > 1, "超长段落应拆成多段");
+        StringBuilder joined = new StringBuilder();
+        for (TextSegment segment : segments) {
+            assertTrue(TokenEstimator.estimate(segment.text()) <= maxTokens, "分段超出长度上限: " + segment.text());
+            String body = body(segment, "门诊时间");
+            assertTrue(body.startsWith("门诊时间为") && body.endsWith("。"), "应在句末拆分: " + body);
+            joined.append(body);
+        }
+        assertEquals(sentence.repeat(10), joined.toString());
+    }
+
+    @Test
+    void skippedHeadingLevelsAreLeftOutOfThePath() {
+        String markdown = """
+                # 门诊指南
+                ### 挂号须知
+                挂号需携带身份证。
+                ## 科室介绍
+                内科位于门诊二楼。
+                """;
+
+        List<TextSegment> segments = new MarkdownDocumentSplitter(200).split(Document.from(markdown));
+
+        assertEquals(2, segments.size());
+        assertEquals("门诊指南 > 挂号须知", segments.get(0).metadata().getString(MarkdownDocumentSplitter.HEADING_PATH));
+        assertEquals("门诊指南 > 挂号须知\n挂号需携带身份证。", segments.get(0).text());
+        assertEquals("门诊指南 > 科室介绍", segments.get(1).metadata().getString(MarkdownDocumentSplitter.HEADING_PATH));
+        assertEquals("门诊指南 > 科室介绍\n内科位于门诊二楼。", segments.get(1).text());
+    }
+
+    @Test
+    void unclosedCodeFenceRunsToEndOfDocument() {
+        String markdown = """
+                # 接口示例
+                ```
+                # 不是标题
+                | 也不是表格 |
+                - 也不是列表
+                """;
+
+        List<TextSegment> segments = new MarkdownDocumentSplitter(200).split(Document.from(markdown));
+
+        assertEquals(1, segments.size());
+        assertEquals("接口示例", segments.get(0).metadata().getString(MarkdownDocumentSplitter.HEADING_PATH));
+        assertEquals("接口示例\n```\n# 不是标题\n| 也不是表格 |\n- 也不是列表\n", segments.get(0).text());
+    }
+
+    /**
+     * 去掉分段开头的标题路径
+     */
+    private static String body(TextSegment segment, String path) {
+        assertTrue(segment.text().startsWith(path + "\n"), "分段应以标题路径开头: " + segment.text());
+        return segment.text().substring(path.length() + 1);
+    }
+}
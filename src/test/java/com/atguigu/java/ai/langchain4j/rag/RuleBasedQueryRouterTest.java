@@ -0,0 +1,54 @@
+package com.atguigu.java.ai.langchain4j.rag;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 查询路由规则测试
+ * 寒暄、确认和预约字段值跳过检索；以寒暄用语开头的真实问题（如“行政楼在哪”）仍需检索
+ */
+class RuleBasedQueryRouterTest {
+
+    @Test
+    void skipsChitchat() {
+        for (String text : List.of("你好", "您好！", "谢谢！", "谢谢你，辛苦了", "好的", "好的好的", "嗯嗯",
+                "OK", "没问题，确认", "不用了，再见", "在吗？", "明白了")) {
+            assertFalse(RuleBasedQueryRouter.needsRetrieval(text), text);
+        }
+    }
+
+    @Test
+    void skipsSlotValues() {
+        for (String text : List.of("110101199001011234", "11010119900101123X", "13800138000",
+                "我的身份证号是110101199001011234", "手机号：13800138000", "明天上午", "下周三下午",
+                "2024-05-01 下午3点", "5月1日", "3点半", "3点30分", "15:30", "好的，明天上午", "我叫张三")) {
+            assertFalse(RuleBasedQueryRouter.needsRetrieval(text), text);
+        }
+    }
+
+    @Test
+    void retrievesQuestions() {
+        for (String text : List.of("内科有哪些医生", "挂号需要带什么", "明天上午内科有哪些医生",
+                "你好，请问儿科在几楼", "谢谢，那停车场在哪")) {
+            assertTrue(RuleBasedQueryRouter.needsRetrieval(text), text);
+        }
+    }
+
+    @Test
+    void retrievesQuestionsStartingWithChitchatWords() {
+        // 开头的“行”“好”“可以”“请”等与寒暄用语相同，剩余部分仍是问题
+        for (String text : List.of("行政楼在哪", "好的医生有哪些", "可以用医保卡吗", "请问急诊在哪",
+                "是否需要空腹", "对面的药房几点关门", "明天上午有专家号吗")) {
+            assertTrue(RuleBasedQueryRouter.needsRetrieval(text), text);
+        }
+    }
+
+    @Test
+    void nullTextSkipsRetrieval() {
+        assertFalse(RuleBasedQueryRouter.needsRetrieval(null));
+    }
+}
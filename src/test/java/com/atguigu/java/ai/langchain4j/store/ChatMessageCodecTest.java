@@ -0,0 +1,95 @@
+package com.atguigu.java.ai.langchain4j.store;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 二进制编码与json编码的对比测试
+ * 覆盖全部消息类型（含工具调用请求与结果）及压缩后的数据，验证往返无损，并比较编码体积
+ */
+class ChatMessageCodecTest {
+
+    private final ChatMessageCodec json = new JsonChatMessageCodec();
+    private final ChatMessageCodec binary = new BinaryChatMessageCodec();
+
+    private static List<ChatMessage> conversation() {
+        ToolExecutionRequest request = ToolExecutionRequest.builder()
+                .id("call_1")
+                .name("bookAppointment")
+                .arguments("{\"username\":\"张三\",\"idCard\":\"110101199001011234\",\"department\":\"内科\","
+                        + "\"date\":\"2025-04-14\",\"time\":\"上午\",\"doctorName\":\"\"}")
+                .build();
+        ToolExecutionRequest second = ToolExecutionRequest.builder()
+                .id("call_2")
+                .name("queryDepartment")
+                .arguments("{\"name\":\"内科\",\"date\":\"2025-04-14\",\"time\":\"上午\"}")
+                .build();
+        return List.of(
+                SystemMessage.from("你的名字是\"硅谷小智\"，你是一家名为\"北京协和医院\"的智能客服。"
+                        + "你是一个训练有素的医疗顾问和医疗伴诊助手。你态度友好、礼貌且言辞简洁。"),
+                UserMessage.from("你好，我想挂明天上午内科的号"),
+                UserMessage.from("张三", "我的身份证号是110101199001011234"),
+                AiMessage.from("好的，请问您需要预约哪位医生？如果没有指定，我会为您安排当天出诊的医生。"),
+                AiMessage.from(List.of(request)),
+                AiMessage.from("正在为您查询号源并预约。", List.of(second, request)),
+                ToolExecutionResultMessage.from("call_2", "queryDepartment", "true"),
+                ToolExecutionResultMessage.from("call_1", "bookAppointment", "预约成功，并返回预约详情"),
+                AiMessage.from("已为您预约2025年4月14日上午内科门诊，请携带身份证提前15分钟到门诊二楼分诊台签到。"
+                        .repeat(8)));
+    }
+
+    @Test
+    void roundTripsEveryMessageTypeWithBothCodecs() {
+        for (ChatMessage message : conversation()) {
+            assertEquals(message, json.decode(json.encode(message)), "json: " + message.type());
+            assertEquals(message, binary.decode(binary.encode(message)), "binary: " + message.type());
+        }
+    }
+
+    @Test
+    void roundTripsCompressedPayloads() {
+        List<ChatMessage> messages = conversation();
+        for (ChatMessageCodec codec : List.of(json, binary)) {
+            // 阈值为 0，所有有压缩收益的正文都会被压缩
+            ChatMessageFormat format = new ChatMessageFormat(codec, 0);
+            byte[] packed = format.packAll(messages);
+            assertEquals(1, packed[1], codec.getClass().getSimpleName() + " 的正文应被压缩");
+            assertEquals(messages, format.unpackAll(packed));
+            for (ChatMessage message : messages) {
+                assertEquals(message, format.unpack(format.pack(message)));
+            }
+        }
+    }
+
+    @Test
+    void readsDataWrittenByTheOtherCodec() {
+        List<ChatMessage> messages = conversation();
+        ChatMessageFormat jsonFormat = new ChatMessageFormat(json, 256);
+        ChatMessageFormat binaryFormat = new ChatMessageFormat(binary, 256);
+        assertEquals(messages, binaryFormat.unpackAll(jsonFormat.packAll(messages)));
+        assertEquals(messages, jsonFormat.unpackAll(binaryFormat.packAll(messages)));
+    }
+
+    @Test
+    void binaryIsSmallerThanJson() {
+        List<ChatMessage> messages = conversation();
+        for (ChatMessage message : messages) {
+            assertTrue(binary.encode(message).length < json.encode(message).length,
+                    "二进制编码应小于json编码: " + message.type());
+        }
+
+        int jsonPacked = new ChatMessageFormat(json, 256).packAll(messages).length;
+        int binaryPacked = new ChatMessageFormat(binary, 256).packAll(messages).length;
+        assertTrue(binaryPacked < jsonPacked, "压缩后的二进制编码应小于json编码");
+    }
+}